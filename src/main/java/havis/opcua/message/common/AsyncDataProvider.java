@@ -0,0 +1,32 @@
+package havis.opcua.message.common;
+
+import java.util.concurrent.CompletionStage;
+
+import havis.opcua.message.DataProvider;
+
+/**
+ * Data provider completing reads, writes and calls asynchronously. A
+ * {@link DataProvider} passed to {@link MessageHandlerCommon} which also
+ * implements this interface is invoked through the asynchronous methods, the
+ * response is sent when the returned stage completes. Failed invocations
+ * complete the stage exceptionally with the {@link havis.opcua.message.exception.ParameterException}
+ * the blocking method would throw. Blocking providers are wrapped by an
+ * {@link AsyncDataProviderAdapter}.
+ */
+public interface AsyncDataProvider {
+
+	/**
+	 * @see DataProvider#read(String)
+	 */
+	CompletionStage<Object> readAsync(String id);
+
+	/**
+	 * @see DataProvider#write(String, Object)
+	 */
+	CompletionStage<Void> writeAsync(String id, Object value);
+
+	/**
+	 * @see DataProvider#call(String, String, Object[])
+	 */
+	CompletionStage<Object[]> callAsync(String methodId, String paramId, Object[] params);
+}
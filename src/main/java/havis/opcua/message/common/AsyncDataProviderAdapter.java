@@ -0,0 +1,117 @@
+package havis.opcua.message.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import havis.opcua.message.DataProvider;
+
+/**
+ * Adapts a blocking {@link DataProvider} to the {@link AsyncDataProvider}
+ * interface. The blocking methods are invoked on an executor or, without an
+ * executor, by the calling thread which receives an already completed stage.
+ * On a {@link KeyedExecutor}, invocations for the same parameter or method run
+ * in the order of their submission.
+ */
+public class AsyncDataProviderAdapter implements AsyncDataProvider {
+
+	private final DataProvider provider;
+	private final Executor executor;
+	private final KeyedExecutor keyedExecutor;
+
+	/**
+	 * Creates an adapter invoking the provider in the calling thread
+	 */
+	public AsyncDataProviderAdapter(DataProvider provider) {
+		this(provider, (Executor) null);
+	}
+
+	/**
+	 * Creates an adapter invoking the provider on the executor
+	 */
+	public AsyncDataProviderAdapter(DataProvider provider, Executor executor) {
+		this.provider = provider;
+		this.executor = executor;
+		this.keyedExecutor = null;
+	}
+
+	/**
+	 * Creates an adapter invoking the provider on the executor, keyed by the
+	 * parameter or method ID
+	 */
+	public AsyncDataProviderAdapter(DataProvider provider, KeyedExecutor keyedExecutor) {
+		this.provider = provider;
+		this.executor = null;
+		this.keyedExecutor = keyedExecutor;
+	}
+
+	public DataProvider getProvider() {
+		return provider;
+	}
+
+	@Override
+	public CompletionStage<Object> readAsync(final String id) {
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		execute(id, future, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.complete(provider.read(id));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	@Override
+	public CompletionStage<Void> writeAsync(final String id, final Object value) {
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		execute(id, future, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					provider.write(id, value);
+					future.complete(null);
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	@Override
+	public CompletionStage<Object[]> callAsync(final String methodId, final String paramId, final Object[] params) {
+		final CompletableFuture<Object[]> future = new CompletableFuture<>();
+		execute(methodId, future, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.complete(provider.call(methodId, paramId, params));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	private void execute(String key, CompletableFuture<?> future, Runnable invocation) {
+		if (executor == null && keyedExecutor == null) {
+			invocation.run();
+			return;
+		}
+
+		try {
+			if (keyedExecutor != null)
+				keyedExecutor.execute(key, invocation);
+			else
+				executor.execute(invocation);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package havis.opcua.message.common;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import havis.opcua.message.common.model.Call;
+import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.BufferPool;
+
+/**
+ * Cache of encoded responses of cacheable methods with a time to live. A call
+ * is identified by its encoded body, i.e. the method ID, the object ID and the
+ * values of the arguments. A hit copies the encoded response and patches the
+ * message ID, neither the call locks nor the data provider are involved. The
+ * least recently used entries are evicted if the size limit is reached.
+ */
+class CallCache {
+
+	private final Map<String, Integer> ttls = new ConcurrentHashMap<>();
+	/* guarded by itself */
+	private final LinkedHashMap<ByteBuffer, CacheEntry> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile int maxSize;
+
+	CallCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<ByteBuffer, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CacheEntry> eldest) {
+				return size() > CallCache.this.maxSize;
+			}
+		};
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the time to live of cached responses of the method in
+	 *         milliseconds, 0 if the method is not cacheable
+	 */
+	int getTtl(String methodId) {
+		if (ttls.isEmpty())
+			return 0;
+		Integer ttl = ttls.get(methodId);
+		return ttl == null ? 0 : ttl;
+	}
+
+	/**
+	 * Declares the method cacheable, 0 disables caching of the method and
+	 * drops all cached responses
+	 */
+	void setTtl(String methodId, int ttl) {
+		if (ttl > 0)
+			ttls.put(methodId, ttl);
+		else {
+			ttls.remove(methodId);
+			synchronized (entries) {
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the key of the call, its encoded body
+	 */
+	static ByteBuffer key(Call call) {
+		byte[] bytes = MessageSerializer.serialize(call);
+		return ByteBuffer.wrap(bytes, MessageHeader.BYTE_COUNT, bytes.length - MessageHeader.BYTE_COUNT).slice();
+	}
+
+	/**
+	 * @return a pooled buffer with the cached response for the message ID,
+	 *         null if there is no valid cached response
+	 */
+	ByteBuffer get(ByteBuffer key, int messageId, BufferPool bufferPool) {
+		byte[] response = null;
+		synchronized (entries) {
+			CacheEntry entry = entries.get(key);
+			if (entry != null && entry.expires - System.nanoTime() > 0)
+				response = entry.response;
+		}
+
+		if (response == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+
+		ByteBuffer bb = bufferPool.acquire(response.length);
+		bb.put(response);
+		bb.putInt(ReadCache.MESSAGE_ID_OFFSET, messageId);
+		bb.flip();
+		return bb;
+	}
+
+	/**
+	 * Stores the encoded response of a successful call
+	 */
+	void put(String methodId, ByteBuffer key, byte[] response) {
+		int ttl = getTtl(methodId);
+		if (ttl <= 0)
+			return;
+
+		long expires = System.nanoTime() + ttl * 1000000L;
+		synchronized (entries) {
+			entries.put(key, new CacheEntry(response, expires));
+		}
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{ size = %d, hits = %d, misses = %d }", getSize(), getHits(), getMisses());
+	}
+
+	private static class CacheEntry {
+		final byte[] response;
+		final long expires;
+
+		CacheEntry(byte[] response, long expires) {
+			this.response = response;
+			this.expires = expires;
+		}
+	}
+}
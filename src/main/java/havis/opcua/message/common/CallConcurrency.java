@@ -0,0 +1,20 @@
+package havis.opcua.message.common;
+
+/**
+ * Concurrency policy of a method, applied to each call of the method
+ */
+public enum CallConcurrency {
+	/**
+	 * The call runs alone, no other call runs at the same time.
+	 */
+	EXCLUSIVE,
+	/**
+	 * The call runs in parallel with all other shared and keyed calls.
+	 */
+	SHARED,
+	/**
+	 * The call runs in parallel with other shared and keyed calls, but
+	 * sequentially with keyed calls on the same object.
+	 */
+	KEYED
+}
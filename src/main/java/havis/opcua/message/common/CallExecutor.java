@@ -0,0 +1,146 @@
+package havis.opcua.message.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes method calls with a limit of pending calls. Calls run on a pool of
+ * platform threads or, if requested and supported by the JDK, on a virtual
+ * thread per call. Calls exceeding the number of threads plus the queue
+ * limit are rejected.
+ */
+class CallExecutor {
+
+	private static final Logger LOG = Logger.getLogger(CallExecutor.class.getName());
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final int maxPending;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param threads
+	 *            number of platform threads
+	 * @param queueSize
+	 *            maximum number of calls waiting for a platform thread, with
+	 *            virtual threads threads + queueSize calls may run at the
+	 *            same time
+	 * @param virtualThreads
+	 *            whether to run each call on a virtual thread
+	 */
+	CallExecutor(int threads, int queueSize, boolean virtualThreads) {
+		if (threads < 1 || queueSize < 0)
+			throw new IllegalArgumentException("Invalid call executor configuration: threads=" + threads
+					+ ", queueSize=" + queueSize);
+
+		this.maxPending = threads + queueSize;
+
+		ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtualThreads = true;
+		} else {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Call"));
+			/* idle threads terminate, so the pool needs no shutdown */
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.virtualThreads = false;
+		}
+	}
+
+	/**
+	 * @return the virtual thread per task executor of JDK 21 and later, null
+	 *         if not supported
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Virtual threads are not supported, using platform threads for calls");
+			return null;
+		}
+	}
+
+	/**
+	 * Queues the call for execution.
+	 *
+	 * @return false if the call has been rejected because the limit of
+	 *         pending calls has been reached
+	 */
+	boolean execute(final Runnable call) {
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+
+		queued.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					queued.decrementAndGet();
+					active.incrementAndGet();
+					try {
+						call.run();
+					} finally {
+						active.decrementAndGet();
+						pending.decrementAndGet();
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return the number of calls waiting for a thread
+	 */
+	int getQueuedCount() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of calls being executed
+	 */
+	int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * @return the number of calls rejected since creation
+	 */
+	long getRejectedCount() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{ virtualThreads = %b, queued = %d, active = %d, rejected = %d }", virtualThreads,
+				getQueuedCount(), getActiveCount(), getRejectedCount());
+	}
+}
@@ -0,0 +1,128 @@
+package havis.opcua.message.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks applying the {@link CallConcurrency} of each method to its calls.
+ * Exclusive calls hold the write lock, shared and keyed calls hold the read
+ * lock. Keyed calls additionally hold one of a fixed number of striped locks
+ * selected by the object of the call.
+ */
+class CallLocks {
+
+	static final int STRIPES = 32;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Lock[] stripes = new Lock[STRIPES];
+	private final Map<String, CallConcurrency> concurrency = new ConcurrentHashMap<>();
+	private volatile CallConcurrency defaultConcurrency = CallConcurrency.EXCLUSIVE;
+
+	CallLocks() {
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new ReentrantLock();
+	}
+
+	CallConcurrency getDefaultConcurrency() {
+		return defaultConcurrency;
+	}
+
+	void setDefaultConcurrency(CallConcurrency defaultConcurrency) {
+		if (defaultConcurrency == null)
+			throw new IllegalArgumentException("Call concurrency must not be null");
+		this.defaultConcurrency = defaultConcurrency;
+	}
+
+	CallConcurrency getConcurrency(String methodId) {
+		CallConcurrency c = concurrency.get(methodId);
+		return c != null ? c : defaultConcurrency;
+	}
+
+	/**
+	 * Sets the concurrency of a method, null resets it to the default
+	 */
+	void setConcurrency(String methodId, CallConcurrency c) {
+		if (c == null)
+			concurrency.remove(methodId);
+		else
+			concurrency.put(methodId, c);
+	}
+
+	/**
+	 * Acquires the locks for a call of the method on the object.
+	 *
+	 * @return the acquired locks to be passed to {@link #unlock(Lock[])}
+	 */
+	Lock[] lock(String methodId, String objectId) {
+		Lock[] locks = locks(methodId, objectId);
+		for (int i = 0; i < locks.length; i++)
+			locks[i].lock();
+		return locks;
+	}
+
+	/**
+	 * Acquires the locks for a call of the method on the object within the
+	 * timeout.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds, {@link Long#MAX_VALUE} to wait
+	 *            until the locks are acquired
+	 * @return the acquired locks to be passed to {@link #unlock(Lock[])},
+	 *         null if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting, no locks are
+	 *             held
+	 */
+	Lock[] tryLock(String methodId, String objectId, long timeout) throws InterruptedException {
+		Lock[] locks = locks(methodId, objectId);
+		long end = timeout == Long.MAX_VALUE ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		int acquired = 0;
+		try {
+			for (; acquired < locks.length; acquired++) {
+				if (timeout == Long.MAX_VALUE)
+					locks[acquired].lockInterruptibly();
+				else if (!locks[acquired].tryLock(end - System.nanoTime(), TimeUnit.NANOSECONDS))
+					break;
+			}
+		} finally {
+			if (acquired < locks.length) {
+				for (int i = acquired - 1; i >= 0; i--)
+					locks[i].unlock();
+			}
+		}
+		return acquired < locks.length ? null : locks;
+	}
+
+	private Lock[] locks(String methodId, String objectId) {
+		Lock[] locks;
+		switch (getConcurrency(methodId)) {
+		case SHARED:
+			locks = new Lock[] { lock.readLock() };
+			break;
+		case KEYED:
+			/* always in this order, so keyed calls cannot deadlock */
+			locks = new Lock[] { lock.readLock(), stripe(objectId) };
+			break;
+		case EXCLUSIVE:
+		default:
+			locks = new Lock[] { lock.writeLock() };
+			break;
+		}
+		return locks;
+	}
+
+	void unlock(Lock[] locks) {
+		for (int i = locks.length - 1; i >= 0; i--)
+			locks[i].unlock();
+	}
+
+	private Lock stripe(String objectId) {
+		int h = objectId == null ? 0 : objectId.hashCode();
+		h ^= h >>> 16;
+		return stripes[(h & 0x7fffffff) % stripes.length];
+	}
+}
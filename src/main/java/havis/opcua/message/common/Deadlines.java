@@ -0,0 +1,231 @@
+package havis.opcua.message.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the time of data provider invocations. A deadline is started by the
+ * thread invoking the provider. If it expires before the invocation completes,
+ * the expiry action answers the request, the invoking thread is interrupted
+ * unless it has been detached, a watched asynchronous invocation is cancelled
+ * and the result of the invocation is discarded. Expired deadlines are
+ * counted per parameter or method.
+ */
+class Deadlines {
+
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	/**
+	 * Deadline of invocations without a timeout, it never expires
+	 */
+	static final Deadline NONE = new Deadline(null, null, null, false);
+
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final ConcurrentMap<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+	private volatile boolean interrupt = true;
+
+	Deadlines() {
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Deadline"));
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		/* an idle thread terminates, so the scheduler needs no shutdown */
+		this.scheduler.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+		this.scheduler.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return whether threads are interrupted when their deadline expires
+	 */
+	boolean isInterrupt() {
+		return interrupt;
+	}
+
+	void setInterrupt(boolean interrupt) {
+		this.interrupt = interrupt;
+	}
+
+	/**
+	 * Starts a deadline for an invocation by the current thread
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds, no deadline if not positive
+	 * @param id
+	 *            the parameter or method ID the timeout is counted for
+	 * @param expiry
+	 *            action answering the request if the deadline expires
+	 * @return the deadline to complete after the invocation
+	 */
+	Deadline start(long timeout, String id, Runnable expiry) {
+		if (timeout <= 0)
+			return NONE;
+
+		Deadline deadline = new Deadline(this, id, expiry, interrupt);
+		ScheduledFuture<?> future = scheduler.schedule(deadline, timeout, TimeUnit.MILLISECONDS);
+		synchronized (deadline) {
+			deadline.future = future;
+		}
+		return deadline;
+	}
+
+	private void expired(String id) {
+		AtomicLong count = timeouts.get(id);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = timeouts.putIfAbsent(id, newCount);
+			if (count == null)
+				count = newCount;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of expired deadlines of the parameter or method
+	 */
+	long getTimeouts(String id) {
+		AtomicLong count = timeouts.get(id);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return a snapshot of the number of expired deadlines per parameter or
+	 *         method
+	 */
+	Map<String, Long> getTimeouts() {
+		Map<String, Long> snapshot = new HashMap<>();
+		for (Map.Entry<String, AtomicLong> entry : timeouts.entrySet())
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		return snapshot;
+	}
+
+	static class Deadline implements Runnable {
+		private static final int RUNNING = 0;
+		private static final int COMPLETED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Deadlines deadlines;
+		private final String id;
+		private final Runnable expiry;
+		private final boolean interrupt;
+		/* guarded by this, the interrupt must not hit a later task */
+		private int state = RUNNING;
+		private Thread thread;
+		private Future<?> invocation;
+		private ScheduledFuture<?> future;
+
+		private Deadline(Deadlines deadlines, String id, Runnable expiry, boolean interrupt) {
+			this.deadlines = deadlines;
+			this.id = id;
+			this.expiry = expiry;
+			this.interrupt = interrupt;
+			this.thread = Thread.currentThread();
+		}
+
+		/**
+		 * Expires the deadline unless the invocation completed
+		 */
+		@Override
+		public void run() {
+			Future<?> watched;
+			synchronized (this) {
+				if (state != RUNNING)
+					return;
+				state = EXPIRED;
+				if (interrupt && thread != null)
+					thread.interrupt();
+				watched = invocation;
+			}
+			if (watched != null)
+				watched.cancel(true);
+			deadlines.expired(id);
+			expiry.run();
+		}
+
+		/**
+		 * @return true if the deadline expired
+		 */
+		synchronized boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		/**
+		 * @return the milliseconds until the deadline expires,
+		 *         {@link Long#MAX_VALUE} without a deadline
+		 */
+		long getRemaining() {
+			if (this == NONE)
+				return Long.MAX_VALUE;
+
+			ScheduledFuture<?> scheduled;
+			synchronized (this) {
+				if (state == EXPIRED)
+					return 0;
+				scheduled = future;
+			}
+			return Math.max(0, scheduled.getDelay(TimeUnit.MILLISECONDS));
+		}
+
+		/**
+		 * Cancels the asynchronous invocation if the deadline expires
+		 */
+		void watch(Future<?> invocation) {
+			if (this == NONE)
+				return;
+
+			boolean expired;
+			synchronized (this) {
+				this.invocation = invocation;
+				expired = state == EXPIRED;
+			}
+			if (expired)
+				invocation.cancel(true);
+		}
+
+		/**
+		 * Stops interrupting the invoking thread, which continues with other
+		 * tasks while an asynchronous invocation is pending. Must be called by
+		 * the invoking thread, the interrupt of an expired deadline is
+		 * cleared.
+		 */
+		void detach() {
+			if (this == NONE)
+				return;
+
+			synchronized (this) {
+				if (thread == Thread.currentThread() && state == EXPIRED)
+					Thread.interrupted();
+				thread = null;
+			}
+		}
+
+		/**
+		 * Completes the invocation. If called by the attached invoking thread,
+		 * the interrupt of an expired deadline is cleared.
+		 *
+		 * @return false if the deadline expired and the request has already
+		 *         been answered
+		 */
+		boolean complete() {
+			if (this == NONE)
+				return true;
+
+			ScheduledFuture<?> scheduled;
+			synchronized (this) {
+				if (state == EXPIRED) {
+					if (thread == Thread.currentThread())
+						Thread.interrupted();
+					return false;
+				}
+				state = COMPLETED;
+				scheduled = future;
+			}
+			scheduled.cancel(false);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package havis.opcua.message.common;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes tasks on an underlying executor while tasks with the same key run
+ * sequentially in submission order. Tasks with different keys may run in
+ * parallel. Tasks exceeding the limit of pending tasks are rejected.
+ */
+public class KeyedExecutor {
+
+	private static final Logger LOG = Logger.getLogger(KeyedExecutor.class.getName());
+
+	private final Executor executor;
+	private final int maxPending;
+
+	/* queues of keys with pending or running tasks, guarded by itself */
+	private final Map<Object, SerialQueue> queues = new HashMap<>();
+	/* pending and running tasks of all keys, guarded by queues */
+	private int pending;
+	private long rejected;
+
+	public KeyedExecutor(Executor executor) {
+		this(executor, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxPending
+	 *            the maximum number of pending and running tasks of all keys
+	 */
+	public KeyedExecutor(Executor executor, int maxPending) {
+		if (maxPending < 1)
+			throw new IllegalArgumentException("Invalid maximum number of pending tasks: " + maxPending);
+		this.executor = executor;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Queues the task behind all pending tasks with the same key.
+	 *
+	 * @throws RejectedExecutionException
+	 *             if the limit of pending tasks has been reached or the
+	 *             underlying executor rejected the task
+	 */
+	public void execute(Object key, Runnable task) {
+		synchronized (queues) {
+			if (pending >= maxPending) {
+				rejected++;
+				throw new RejectedExecutionException(pending + " tasks pending");
+			}
+			SerialQueue queue = queues.get(key);
+			if (queue != null) {
+				queue.tasks.add(task);
+				pending++;
+				return;
+			}
+
+			/*
+			 * the queue is registered only once it has been scheduled so that
+			 * no task is queued behind a task which never runs
+			 */
+			queue = new SerialQueue(key);
+			queue.tasks.add(task);
+			try {
+				executor.execute(queue);
+			} catch (RejectedExecutionException e) {
+				rejected++;
+				throw e;
+			}
+			queues.put(key, queue);
+			pending++;
+		}
+	}
+
+	/**
+	 * @return the number of pending and running tasks of all keys
+	 */
+	public int getPendingCount() {
+		synchronized (queues) {
+			return pending;
+		}
+	}
+
+	/**
+	 * @return the number of tasks rejected since creation
+	 */
+	public long getRejectedCount() {
+		synchronized (queues) {
+			return rejected;
+		}
+	}
+
+	/**
+	 * @return the number of keys with pending or running tasks
+	 */
+	public int getActiveKeyCount() {
+		synchronized (queues) {
+			return queues.size();
+		}
+	}
+
+	private class SerialQueue implements Runnable {
+		final Object key;
+		final Queue<Runnable> tasks = new ArrayDeque<>();
+
+		SerialQueue(Object key) {
+			this.key = key;
+		}
+
+		/**
+		 * Runs a single task, the queue is scheduled again for further tasks
+		 * so that busy keys do not starve others. If the underlying executor
+		 * rejects it, further tasks run on the current thread.
+		 */
+		@Override
+		public void run() {
+			while (runNext()) {
+				try {
+					executor.execute(this);
+					return;
+				} catch (RejectedExecutionException e) {
+					LOG.log(Level.FINE, "Running further tasks for key " + key + " on the current thread", e);
+				}
+			}
+		}
+
+		/**
+		 * @return true if further tasks are pending
+		 */
+		private boolean runNext() {
+			Runnable task;
+			synchronized (queues) {
+				task = tasks.poll();
+			}
+
+			boolean more = false;
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Task for key " + key + " failed", e);
+			} finally {
+				synchronized (queues) {
+					pending--;
+					more = !tasks.isEmpty();
+					if (!more)
+						queues.remove(key);
+				}
+			}
+			return more;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package havis.opcua.message.common;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import havis.opcua.message.common.model.ParamValue;
+
+/**
+ * The values last sent to each subscriber per parameter, to drop
+ * notifications of unchanged values. Parameters are keyed by their data
+ * provider ID, values are compared by {@link ParamValue#equals(Object)}.
+ *
+ * @param <C>
+ *            the subscriber type
+ */
+class LastSentValues<C> {
+
+	private final ConcurrentMap<C, ConcurrentMap<String, ParamValue>> values = new ConcurrentHashMap<>();
+	private final AtomicLong suppressed = new AtomicLong();
+
+	/**
+	 * Keeps the value as last sent value of the parameter
+	 *
+	 * @param id
+	 *            the data provider ID of the parameter
+	 * @return false if the value equals the last sent value and is not to be
+	 *         sent
+	 */
+	boolean update(C subscriber, String id, ParamValue value) {
+		ConcurrentMap<String, ParamValue> sent = values.computeIfAbsent(subscriber,
+				new Function<C, ConcurrentMap<String, ParamValue>>() {
+					@Override
+					public ConcurrentMap<String, ParamValue> apply(C key) {
+						return new ConcurrentHashMap<>();
+					}
+				});
+		if (value.equals(sent.put(id, value))) {
+			suppressed.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Discards the last sent values of a subscription, so the next value is
+	 * sent regardless of a change
+	 *
+	 * @param id
+	 *            the subscription ID, may be a wildcard
+	 */
+	void remove(C subscriber, String id) {
+		ConcurrentMap<String, ParamValue> sent = values.get(subscriber);
+		if (sent == null)
+			return;
+		if (!SubscriptionRegistry.isWildcard(id)) {
+			sent.remove(id);
+			return;
+		}
+		String prefix = id.substring(0, id.length() - SubscriptionRegistry.WILDCARD.length());
+		for (Iterator<String> it = sent.keySet().iterator(); it.hasNext();)
+			if (it.next().startsWith(prefix))
+				it.remove();
+	}
+
+	/**
+	 * Discards the last sent values of a subscriber
+	 */
+	void removeAll(C subscriber) {
+		values.remove(subscriber);
+	}
+
+	/**
+	 * Discards all last sent values
+	 */
+	void clear() {
+		values.clear();
+	}
+
+	/**
+	 * @return the number of values which were not sent as they equaled the
+	 *         last sent value
+	 */
+	long getSuppressed() {
+		return suppressed.get();
+	}
+}
@@ -4,21 +4,42 @@ import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import havis.opcua.message.DataProvider;
 import havis.opcua.message.MessageHandler;
+import havis.opcua.message.common.Deadlines.Deadline;
 import havis.opcua.message.common.model.Call;
 import havis.opcua.message.common.model.CallResponse;
 import havis.opcua.message.common.model.Event;
 import havis.opcua.message.common.model.Message;
 import havis.opcua.message.common.model.MessageHeader;
 import havis.opcua.message.common.model.Notification;
+import havis.opcua.message.common.model.ParamId;
 import havis.opcua.message.common.model.ParamValue;
 import havis.opcua.message.common.model.Read;
 import havis.opcua.message.common.model.ReadResponse;
@@ -31,8 +52,11 @@ import havis.opcua.message.common.model.Write;
 import havis.opcua.message.common.model.WriteResponse;
 import havis.opcua.message.common.serialize.MessageDeserializer;
 import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.BufferPool;
+import havis.opcua.message.common.server.Connection;
 import havis.opcua.message.common.server.MessageListener;
 import havis.opcua.message.common.server.MessageServer;
+import havis.opcua.message.common.server.OverflowPolicy;
 import havis.opcua.message.exception.ApplicationException;
 import havis.opcua.message.exception.NoSuchParameterException;
 import havis.opcua.message.exception.ParameterException;
@@ -41,42 +65,621 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 
 	private MessageServer msgServer;
 	private DataProvider provider;
+	private AsyncDataProviderAdapter providerAdapter;
+	private volatile ProviderRouter router;
+	private final Map<ParamId, PendingRead> pendingReads = new ConcurrentHashMap<>();
+	private final AtomicLong coalescedReads = new AtomicLong();
+	private final Map<ParamId, QueuedWrite> queuedWrites = new ConcurrentHashMap<>();
+	private final SubscriptionRegistry<Connection> subscriptions = new SubscriptionRegistry<>();
+	private final SubscriptionFilters<Connection> filters = new SubscriptionFilters<>(
+			new SubscriptionFilters.Publisher<Connection>() {
+				@Override
+				public void publish(Connection connection, String key, Object value) {
+					MessageHandlerCommon.this.publish(connection, key, value);
+				}
+			});
+	private final PollingScheduler<Connection> polling = new PollingScheduler<>(
+			new PollingScheduler.Source<Connection>() {
+				@Override
+				public CompletionStage<Object> read(ParamId paramId, String id) {
+					return MessageHandlerCommon.this.sample(paramId, id);
+				}
+
+				@Override
+				public void changed(Map<String, Object> values) {
+					MessageHandlerCommon.this.notify(values);
+				}
+
+				@Override
+				public void initial(Connection connection, String id, Object value) {
+					/* the filter of the new subscription applies to its first value as well */
+					if (MessageHandlerCommon.this.filters.accept(connection, id, id, value))
+						MessageHandlerCommon.this.publish(connection, id, value);
+				}
+			});
+	private final NotificationCoalescer<Connection> coalescer = new NotificationCoalescer<>(
+			new NotificationCoalescer.Sender<Connection>() {
+				@Override
+				public void send(Collection<Connection> recipients, Map<ParamId, ParamValue> params) {
+					MessageHandlerCommon.this.send(recipients, params);
+				}
+			}, 0, NOTIFICATION_WINDOW_BYTES);
+	private final LastSentValues<Connection> lastSent = new LastSentValues<>();
+	private volatile boolean suppressDuplicates;
+	private final AtomicLong coalescedWrites = new AtomicLong();
+	private volatile boolean coalesceWrites;
+	private volatile int pollInterval;
 	private static final Logger LOG = Logger.getLogger(MessageHandler.class.getName());
 	private static final String PROP_PORT = "havis.opcua.message.MessageHandler.port";
 	private static final String PROP_RECV_TIMEOUT = "havis.opcua.message.MessageHandler.recvTimeout";
-
-	private final ReentrantLock messageLock = new ReentrantLock();
+	private static final String PROP_MAX_CONNECTIONS = "havis.opcua.message.MessageHandler.maxConnections";
+	private static final String PROP_DIRECT_BUFFERS = "havis.opcua.message.MessageHandler.directBuffers";
+	private static final String PROP_MAX_QUEUED_FRAMES = "havis.opcua.message.MessageHandler.maxQueuedFrames";
+	private static final String PROP_MAX_QUEUED_BYTES = "havis.opcua.message.MessageHandler.maxQueuedBytes";
+	private static final String PROP_OVERFLOW_POLICY = "havis.opcua.message.MessageHandler.overflowPolicy";
+	private static final String PROP_OVERFLOW_TIMEOUT = "havis.opcua.message.MessageHandler.overflowTimeout";
+	private static final String PROP_DISPATCH_THREADS = "havis.opcua.message.MessageHandler.dispatchThreads";
+	private static final int DISPATCH_THREADS = 8;
+	private static final int DISPATCH_KEEP_ALIVE_MS = 60000;
+	private static final String PROP_DISPATCH_QUEUE_SIZE = "havis.opcua.message.MessageHandler.dispatchQueueSize";
+	private static final int DISPATCH_QUEUE_SIZE = 1024;
+	private static final String PROP_CALL_THREADS = "havis.opcua.message.MessageHandler.callThreads";
+	private static final String PROP_CALL_QUEUE_SIZE = "havis.opcua.message.MessageHandler.callQueueSize";
+	private static final String PROP_CALL_VIRTUAL_THREADS = "havis.opcua.message.MessageHandler.callVirtualThreads";
+	private static final int CALL_THREADS = 4;
+	private static final int CALL_QUEUE_SIZE = 64;
+	private static final String PROP_CALL_CONCURRENCY = "havis.opcua.message.MessageHandler.callConcurrency";
+	private static final String PROP_DEFAULT_CALL_CONCURRENCY = "havis.opcua.message.MessageHandler.defaultCallConcurrency";
+	private static final String PROP_READ_TIMEOUT = "havis.opcua.message.MessageHandler.readTimeout";
+	private static final String PROP_WRITE_TIMEOUT = "havis.opcua.message.MessageHandler.writeTimeout";
+	private static final String PROP_CALL_TIMEOUT = "havis.opcua.message.MessageHandler.callTimeout";
+	private static final String PROP_INTERRUPT_ON_TIMEOUT = "havis.opcua.message.MessageHandler.interruptOnTimeout";
+	private static final String PROP_READ_CACHE = "havis.opcua.message.MessageHandler.readCache";
+	private static final String PROP_READ_CACHE_SIZE = "havis.opcua.message.MessageHandler.readCacheSize";
+	private static final int READ_CACHE_SIZE = 1024;
+	private static final String PROP_CALL_CACHE = "havis.opcua.message.MessageHandler.callCache";
+	private static final String PROP_CALL_CACHE_SIZE = "havis.opcua.message.MessageHandler.callCacheSize";
+	private static final int CALL_CACHE_SIZE = 256;
+	private static final String PROP_COALESCE_WRITES = "havis.opcua.message.MessageHandler.coalesceWrites";
+	private static final String PROP_POLL_INTERVAL = "havis.opcua.message.MessageHandler.pollInterval";
+	private static final String PROP_NOTIFICATION_WINDOW = "havis.opcua.message.MessageHandler.notificationWindow";
+	private static final String PROP_NOTIFICATION_WINDOW_BYTES = "havis.opcua.message.MessageHandler.notificationWindowBytes";
+	/* the size of the largest pooled write buffer */
+	private static final int NOTIFICATION_WINDOW_BYTES = BufferPool.MAX_BUFFER_SIZE;
+	private static final String PROP_SUPPRESS_DUPLICATES = "havis.opcua.message.MessageHandler.suppressDuplicates";
+
+	private final CallLocks callLocks = new CallLocks();
+	private final KeyedExecutor dispatcher;
+	private final CallExecutor callExecutor;
+	private final Deadlines deadlines = new Deadlines();
+	private final ReadCache readCache;
+	private final CallCache callCache;
+	private volatile int readTimeout;
+	private volatile int writeTimeout;
+	private volatile int callTimeout;
 	private final Logger log = Logger.getLogger(MessageHandlerCommon.class.getName());
 
+	@SuppressWarnings("deprecation")
 	public MessageHandlerCommon() {
 		/* set the message server port from system property */
-		int port = MessageServer.PORT;
-		String portProp = System.getProperty(PROP_PORT);
-		if (portProp != null) {
-			try {
-				port = Integer.parseInt(portProp);
-			} catch (Exception ex) {
-				log.log(Level.SEVERE, "Invalid port type: expected integer: " + System.getProperty(PROP_PORT), ex);
-			}
-		}
+		int port = getIntProperty(PROP_PORT, MessageServer.PORT);
+
+		/* set the receive timeout from system property, it is not used by the server */
+		int recvTimeout = getIntProperty(PROP_RECV_TIMEOUT, MessageServer.RECV_TIMEOUT_MS);
+
+		/* set the maximum number of client connections from system property */
+		int maxConnections = getIntProperty(PROP_MAX_CONNECTIONS, MessageServer.MAX_CONNECTIONS);
 
-		/* set the receive timeout from system property */
-		int recvTimeout = MessageServer.RECV_TIMEOUT_MS;
-		String recvTimeoutProp = System.getProperty(PROP_RECV_TIMEOUT);
-		if (recvTimeoutProp != null) {
+		/* use direct instead of heap buffers if set by system property */
+		boolean directBuffers = Boolean.getBoolean(PROP_DIRECT_BUFFERS);
+
+		/* set the write queue limits and the overflow policy from system properties */
+		int maxQueuedFrames = getIntProperty(PROP_MAX_QUEUED_FRAMES, MessageServer.MAX_QUEUED_FRAMES);
+		int maxQueuedBytes = getIntProperty(PROP_MAX_QUEUED_BYTES, MessageServer.MAX_QUEUED_BYTES);
+		int overflowTimeout = getIntProperty(PROP_OVERFLOW_TIMEOUT, MessageServer.OVERFLOW_TIMEOUT_MS);
+		OverflowPolicy overflowPolicy = MessageServer.OVERFLOW_POLICY;
+		String overflowPolicyProp = System.getProperty(PROP_OVERFLOW_POLICY);
+		if (overflowPolicyProp != null) {
 			try {
-				recvTimeout = Integer.parseInt(recvTimeoutProp);
+				overflowPolicy = OverflowPolicy.valueOf(overflowPolicyProp.trim().toUpperCase());
 			} catch (Exception ex) {
-				log.log(Level.SEVERE,
-						"Invalid receive time out type: expected integer: " + System.getProperty(PROP_RECV_TIMEOUT),
-						ex);
+				log.log(Level.SEVERE, "Invalid overflow policy: expected one of "
+						+ Arrays.toString(OverflowPolicy.values()) + ": " + overflowPolicyProp, ex);
 			}
 		}
 
 		this.msgServer = new MessageServer(port, recvTimeout);
+		this.msgServer.setMaxConnections(maxConnections);
+		this.msgServer.setBufferPool(new BufferPool(directBuffers));
+		this.msgServer.setMaxQueuedFrames(maxQueuedFrames);
+		this.msgServer.setMaxQueuedBytes(maxQueuedBytes);
+		this.msgServer.setOverflowPolicy(overflowPolicy);
+		this.msgServer.setOverflowTimeout(overflowTimeout);
 		LOG.log(Level.FINER, "Message server port: {0}", port);
 		LOG.log(Level.FINER, "Receive timeout: {0} ms", recvTimeout);
+		LOG.log(Level.FINER, "Maximum connections: {0}", maxConnections);
+		LOG.log(Level.FINER, "Direct buffers: {0}", directBuffers);
+		LOG.log(Level.FINER, "Write queue limits: {0} frames, {1} bytes", new Object[] { maxQueuedFrames, maxQueuedBytes });
+		LOG.log(Level.FINER, "Overflow policy: {0}, timeout {1} ms", new Object[] { overflowPolicy, overflowTimeout });
 		this.msgServer.setMessageListener(this);
+
+		/* set the number of request dispatch threads from system property */
+		int dispatchThreads = getIntProperty(PROP_DISPATCH_THREADS, DISPATCH_THREADS);
+		ThreadPoolExecutor dispatchPool = new ThreadPoolExecutor(dispatchThreads, dispatchThreads,
+				DISPATCH_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new NamedThreadFactory("Dispatcher"));
+		/* idle threads terminate, so the pool needs no shutdown */
+		dispatchPool.allowCoreThreadTimeOut(true);
+		/* requests beyond the limit are answered with SERVER_BUSY instead of growing the backlog */
+		int dispatchQueueSize = getIntProperty(PROP_DISPATCH_QUEUE_SIZE, DISPATCH_QUEUE_SIZE);
+		this.dispatcher = new KeyedExecutor(dispatchPool, dispatchQueueSize);
+		LOG.log(Level.FINER, "Dispatch threads: {0}, queue size: {1}",
+				new Object[] { dispatchThreads, dispatchQueueSize });
+
+		/* set the call threads and the call queue limit from system properties */
+		int callThreads = getIntProperty(PROP_CALL_THREADS, CALL_THREADS);
+		int callQueueSize = getIntProperty(PROP_CALL_QUEUE_SIZE, CALL_QUEUE_SIZE);
+		boolean callVirtualThreads = Boolean.getBoolean(PROP_CALL_VIRTUAL_THREADS);
+		this.callExecutor = new CallExecutor(callThreads, callQueueSize, callVirtualThreads);
+		LOG.log(Level.FINER, "Call threads: {0}, queue size: {1}, virtual threads: {2}",
+				new Object[] { callThreads, callQueueSize, this.callExecutor.isVirtualThreads() });
+
+		/*
+		 * set the call concurrency from system properties, per method as a
+		 * comma separated list of <methodId>=<concurrency>
+		 */
+		String defaultCallConcurrencyProp = System.getProperty(PROP_DEFAULT_CALL_CONCURRENCY);
+		if (defaultCallConcurrencyProp != null) {
+			try {
+				this.callLocks.setDefaultConcurrency(CallConcurrency.valueOf(defaultCallConcurrencyProp.trim().toUpperCase()));
+			} catch (Exception ex) {
+				log.log(Level.SEVERE, "Invalid default call concurrency: expected one of "
+						+ Arrays.toString(CallConcurrency.values()) + ": " + defaultCallConcurrencyProp, ex);
+			}
+		}
+		String callConcurrencyProp = System.getProperty(PROP_CALL_CONCURRENCY);
+		if (callConcurrencyProp != null) {
+			for (String entry : callConcurrencyProp.split(",")) {
+				int index = entry.lastIndexOf('=');
+				try {
+					this.callLocks.setConcurrency(entry.substring(0, index).trim(),
+							CallConcurrency.valueOf(entry.substring(index + 1).trim().toUpperCase()));
+				} catch (Exception ex) {
+					log.log(Level.SEVERE, "Invalid call concurrency: expected <methodId>=<"
+							+ Arrays.toString(CallConcurrency.values()) + ">: " + entry, ex);
+				}
+			}
+		}
+		LOG.log(Level.FINER, "Default call concurrency: {0}", this.callLocks.getDefaultConcurrency());
+
+		/* set the deadlines of data provider invocations from system properties */
+		this.readTimeout = getIntProperty(PROP_READ_TIMEOUT, 0);
+		this.writeTimeout = getIntProperty(PROP_WRITE_TIMEOUT, 0);
+		this.callTimeout = getIntProperty(PROP_CALL_TIMEOUT, 0);
+		String interruptProp = System.getProperty(PROP_INTERRUPT_ON_TIMEOUT);
+		if (interruptProp != null)
+			this.deadlines.setInterrupt(Boolean.parseBoolean(interruptProp));
+		LOG.log(Level.FINER, "Timeouts: read {0} ms, write {1} ms, call {2} ms, interrupt {3}",
+				new Object[] { this.readTimeout, this.writeTimeout, this.callTimeout, this.deadlines.isInterrupt() });
+
+		/*
+		 * set the cached parameters from system properties as a comma
+		 * separated list of <paramId>=<time to live in ms>
+		 */
+		this.readCache = new ReadCache(getIntProperty(PROP_READ_CACHE_SIZE, READ_CACHE_SIZE));
+		String readCacheProp = System.getProperty(PROP_READ_CACHE);
+		if (readCacheProp != null) {
+			for (String entry : readCacheProp.split(",")) {
+				int index = entry.lastIndexOf('=');
+				try {
+					this.readCache.setTtl(entry.substring(0, index).trim(),
+							Integer.parseInt(entry.substring(index + 1).trim()));
+				} catch (Exception ex) {
+					log.log(Level.SEVERE, "Invalid read cache entry: expected <paramId>=<ttl>: " + entry, ex);
+				}
+			}
+		}
+		LOG.log(Level.FINER, "Read cache size: {0}", this.readCache.getMaxSize());
+
+		/*
+		 * set the cacheable methods from system properties as a comma
+		 * separated list of <methodId>=<time to live in ms>
+		 */
+		this.callCache = new CallCache(getIntProperty(PROP_CALL_CACHE_SIZE, CALL_CACHE_SIZE));
+		String callCacheProp = System.getProperty(PROP_CALL_CACHE);
+		if (callCacheProp != null) {
+			for (String entry : callCacheProp.split(",")) {
+				int index = entry.lastIndexOf('=');
+				try {
+					this.callCache.setTtl(entry.substring(0, index).trim(),
+							Integer.parseInt(entry.substring(index + 1).trim()));
+				} catch (Exception ex) {
+					log.log(Level.SEVERE, "Invalid call cache entry: expected <methodId>=<ttl>: " + entry, ex);
+				}
+			}
+		}
+		LOG.log(Level.FINER, "Call cache size: {0}", this.callCache.getMaxSize());
+
+		/* coalesce queued writes of a parameter if set by system property */
+		this.coalesceWrites = Boolean.getBoolean(PROP_COALESCE_WRITES);
+		LOG.log(Level.FINER, "Coalesce writes: {0}", this.coalesceWrites);
+
+		/* sample subscribed parameters of the data provider if set by system property */
+		this.pollInterval = Math.max(0, getIntProperty(PROP_POLL_INTERVAL, 0));
+		LOG.log(Level.FINER, "Poll interval: {0}", this.pollInterval);
+
+		/* coalesce notifications within a window in microseconds if set by system property */
+		this.coalescer.setWindow(getIntProperty(PROP_NOTIFICATION_WINDOW, 0));
+		this.coalescer.setMaxBytes(getIntProperty(PROP_NOTIFICATION_WINDOW_BYTES, NOTIFICATION_WINDOW_BYTES));
+		LOG.log(Level.FINER, "Notification window: {0} us, {1} bytes",
+				new Object[] { this.coalescer.getWindow(), this.coalescer.getMaxBytes() });
+
+		/* drop notifications of unchanged values if set by system property */
+		this.suppressDuplicates = Boolean.getBoolean(PROP_SUPPRESS_DUPLICATES);
+		LOG.log(Level.FINER, "Suppress duplicates: {0}", this.suppressDuplicates);
+	}
+
+	private int getIntProperty(String key, int defaultValue) {
+		String prop = System.getProperty(key);
+		if (prop != null) {
+			try {
+				return Integer.parseInt(prop);
+			} catch (Exception ex) {
+				log.log(Level.SEVERE, "Invalid " + key + " type: expected integer: " + prop, ex);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the number of calls waiting for a thread
+	 */
+	public int getQueuedCalls() {
+		return this.callExecutor.getQueuedCount();
+	}
+
+	/**
+	 * @return the number of calls being executed
+	 */
+	public int getActiveCalls() {
+		return this.callExecutor.getActiveCount();
+	}
+
+	/**
+	 * @return the number of calls rejected with status
+	 *         {@link Status#SERVER_BUSY}
+	 */
+	public long getRejectedCalls() {
+		return this.callExecutor.getRejectedCount();
+	}
+
+	/**
+	 * @return the number of dispatched requests waiting for or being handled
+	 */
+	public int getDispatchedRequests() {
+		return this.dispatcher.getPendingCount();
+	}
+
+	/**
+	 * @return the number of requests rejected with status
+	 *         {@link Status#SERVER_BUSY} as the limit of dispatched requests
+	 *         has been reached
+	 */
+	public long getRejectedRequests() {
+		return this.dispatcher.getRejectedCount();
+	}
+
+	/**
+	 * @return the concurrency applied to calls of the method
+	 */
+	public CallConcurrency getCallConcurrency(String methodId) {
+		return this.callLocks.getConcurrency(methodId);
+	}
+
+	/**
+	 * Sets the concurrency applied to calls of the method, null resets it to
+	 * the default concurrency
+	 *
+	 * @param methodId
+	 *            the method ID as passed to the data provider
+	 */
+	public void setCallConcurrency(String methodId, CallConcurrency concurrency) {
+		this.callLocks.setConcurrency(methodId, concurrency);
+	}
+
+	public CallConcurrency getDefaultCallConcurrency() {
+		return this.callLocks.getDefaultConcurrency();
+	}
+
+	/**
+	 * Sets the concurrency of methods without a concurrency of their own,
+	 * {@link CallConcurrency#EXCLUSIVE} by default
+	 */
+	public void setDefaultCallConcurrency(CallConcurrency concurrency) {
+		this.callLocks.setDefaultConcurrency(concurrency);
+	}
+
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a data provider read may take before the
+	 * request is answered with status {@link Status#TIMEOUT}, 0 for no limit
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public int getWriteTimeout() {
+		return this.writeTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a data provider write may take before the
+	 * request is answered with status {@link Status#TIMEOUT}, 0 for no limit
+	 */
+	public void setWriteTimeout(int writeTimeout) {
+		this.writeTimeout = writeTimeout;
+	}
+
+	public int getCallTimeout() {
+		return this.callTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a call may take including the time waiting
+	 * for other calls, before the request is answered with status
+	 * {@link Status#TIMEOUT}, 0 for no limit
+	 */
+	public void setCallTimeout(int callTimeout) {
+		this.callTimeout = callTimeout;
+	}
+
+	/**
+	 * @return whether a data provider invocation is interrupted when it times
+	 *         out, true by default
+	 */
+	public boolean isInterruptOnTimeout() {
+		return this.deadlines.isInterrupt();
+	}
+
+	public void setInterruptOnTimeout(boolean interrupt) {
+		this.deadlines.setInterrupt(interrupt);
+	}
+
+	/**
+	 * @return the number of timed out data provider invocations per parameter
+	 *         or method ID
+	 */
+	public Map<String, Long> getTimeouts() {
+		return this.deadlines.getTimeouts();
+	}
+
+	/**
+	 * @return the number of timed out data provider invocations of the
+	 *         parameter or method
+	 */
+	public long getTimeouts(String id) {
+		return this.deadlines.getTimeouts(id);
+	}
+
+	/**
+	 * @return the number of reads which joined a pending read of the same
+	 *         parameter instead of invoking the data provider
+	 */
+	public long getCoalescedReads() {
+		return this.coalescedReads.get();
+	}
+
+	/**
+	 * @return the time to live of cached read responses of the parameter in
+	 *         milliseconds, 0 if the parameter is not cached
+	 */
+	public int getReadCacheTtl(String paramId) {
+		return this.readCache.getTtl(paramId);
+	}
+
+	/**
+	 * Enables caching of read responses of the parameter. Cached responses are
+	 * invalidated by writes and notifications of the parameter.
+	 *
+	 * @param paramId
+	 *            the parameter ID as passed to the data provider
+	 * @param ttl
+	 *            the time to live in milliseconds, 0 disables caching
+	 */
+	public void setReadCacheTtl(String paramId, int ttl) {
+		this.readCache.setTtl(paramId, ttl);
+	}
+
+	public int getReadCacheSize() {
+		return this.readCache.getMaxSize();
+	}
+
+	/**
+	 * Sets the maximum number of cached parameters, the least recently read
+	 * parameters are evicted first
+	 */
+	public void setReadCacheSize(int size) {
+		this.readCache.setMaxSize(size);
+	}
+
+	/**
+	 * @return the number of reads answered from the cache
+	 */
+	public long getReadCacheHits() {
+		return this.readCache.getHits();
+	}
+
+	/**
+	 * @return the time to live of cached call results of the method in
+	 *         milliseconds, 0 if the method is not cacheable
+	 */
+	public int getCallCacheTtl(String methodId) {
+		return this.callCache.getTtl(methodId);
+	}
+
+	/**
+	 * Declares a method without side effects cacheable. Results of successful
+	 * calls are reused for calls of the method with the same object and
+	 * argument values.
+	 *
+	 * @param methodId
+	 *            the method ID as passed to the data provider
+	 * @param ttl
+	 *            the time to live in milliseconds, 0 disables caching
+	 */
+	public void setCallCacheTtl(String methodId, int ttl) {
+		this.callCache.setTtl(methodId, ttl);
+	}
+
+	public int getCallCacheSize() {
+		return this.callCache.getMaxSize();
+	}
+
+	/**
+	 * Sets the maximum number of cached call results, the least recently
+	 * used results are evicted first
+	 */
+	public void setCallCacheSize(int size) {
+		this.callCache.setMaxSize(size);
+	}
+
+	/**
+	 * @return the number of calls answered from the cache
+	 */
+	public long getCallCacheHits() {
+		return this.callCache.getHits();
+	}
+
+	public boolean isCoalesceWrites() {
+		return this.coalesceWrites;
+	}
+
+	/**
+	 * Enables coalescing of writes. If several writes of a parameter are
+	 * queued, only the latest value is written, the superseded writes are
+	 * answered with status {@link Status#SUPERSEDED}. A read queued between
+	 * two writes keeps both.
+	 */
+	public void setCoalesceWrites(boolean coalesceWrites) {
+		this.coalesceWrites = coalesceWrites;
+	}
+
+	/**
+	 * @return the number of writes superseded by a later write of the same
+	 *         parameter
+	 */
+	public long getCoalescedWrites() {
+		return this.coalescedWrites.get();
+	}
+
+	/**
+	 * @return the default sampling interval of subscribed parameters of the
+	 *         data provider in milliseconds, 0 if the provider notifies
+	 *         changes
+	 */
+	public int getPollInterval() {
+		return this.pollInterval;
+	}
+
+	/**
+	 * Marks the data provider as not notifying changes. Subscribed parameters
+	 * are read at the sampling interval requested by the subscription or at
+	 * the default interval, parameters with the same interval are read
+	 * together and only changed values are notified. Routes are marked by
+	 * {@link ProviderRouter.Route#setPollInterval(int)}. Applies to
+	 * subsequent subscriptions. Wildcard subscriptions of such a provider are
+	 * rejected with {@link Status#INVALID_PARAMETER} as the matching
+	 * parameters are not known.
+	 */
+	public void setPollInterval(int pollInterval) {
+		this.pollInterval = Math.max(0, pollInterval);
+	}
+
+	/**
+	 * @return the window in microseconds in which notifications are
+	 *         coalesced, 0 if notifications are sent immediately
+	 */
+	public long getNotificationWindow() {
+		return this.coalescer.getWindow();
+	}
+
+	/**
+	 * Enables coalescing of notifications. The values notified for a client
+	 * within the window are sent in one notification, if a parameter is
+	 * notified several times only the latest value is sent. Values collected
+	 * so far are sent if coalescing is disabled.
+	 *
+	 * @param window
+	 *            the window in microseconds, 0 to disable coalescing
+	 */
+	public void setNotificationWindow(long window) {
+		this.coalescer.setWindow(window);
+	}
+
+	public int getNotificationWindowBytes() {
+		return this.coalescer.getMaxBytes();
+	}
+
+	/**
+	 * Sets the size of the values collected for a client at which they are
+	 * sent before the window has elapsed
+	 */
+	public void setNotificationWindowBytes(int bytes) {
+		this.coalescer.setMaxBytes(bytes);
+	}
+
+	/**
+	 * @return the number of notified values replaced by a later value of the
+	 *         same parameter within the window
+	 */
+	public long getCoalescedNotifications() {
+		return this.coalescer.getSuperseded();
+	}
+
+	public boolean isSuppressDuplicates() {
+		return this.suppressDuplicates;
+	}
+
+	/**
+	 * Enables suppression of duplicates. The value last sent to a client is
+	 * kept per parameter, a notified value equal to it is not sent to the
+	 * client. A new subscription gets the next value regardless.
+	 */
+	public void setSuppressDuplicates(boolean suppressDuplicates) {
+		this.suppressDuplicates = suppressDuplicates;
+		if (!suppressDuplicates)
+			this.lastSent.clear();
+	}
+
+	/**
+	 * @return the number of notified values not sent as they equaled the value
+	 *         last sent to the client
+	 */
+	public long getSuppressedDuplicates() {
+		return this.lastSent.getSuppressed();
+	}
+
+	/**
+	 * @return the number of parameters sampled for subscriptions
+	 */
+	public int getPolledCount() {
+		return this.polling.size();
+	}
+
+	public ProviderRouter getRouter() {
+		return this.router;
+	}
+
+	/**
+	 * Sets the router of parameters and methods to further data providers,
+	 * null to pass all requests to the data provider the handler has been
+	 * opened with
+	 */
+	public void setRouter(ProviderRouter router) {
+		this.router = router;
 	}
 
 	public void startMessageServer() throws Exception {
@@ -85,6 +688,18 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 
 	public void stopMessageServer() throws Exception {
 		this.msgServer.stop();
+		LOG.log(Level.FINER, "Buffer pool: {0}", this.msgServer.getBufferPool());
+		LOG.log(Level.FINER, "Write buffer pool: {0}", this.msgServer.getWriteBufferPool());
+		LOG.log(Level.FINER, "Dropped frames: {0}, overflow disconnects: {1}",
+				new Object[] { this.msgServer.getDroppedFrames(), this.msgServer.getOverflowDisconnects() });
+		LOG.log(Level.FINER, "Calls: {0}", this.callExecutor);
+		LOG.log(Level.FINER, "Timeouts: {0}", this.deadlines.getTimeouts());
+		LOG.log(Level.FINER, "Coalesced reads: {0}, writes: {1}",
+				new Object[] { this.coalescedReads.get(), this.coalescedWrites.get() });
+		LOG.log(Level.FINER, "Read cache: {0}", this.readCache);
+		LOG.log(Level.FINER, "Call cache: {0}", this.callCache);
+		if (this.router != null)
+			LOG.log(Level.FINER, "Routes: {0}", this.router.getRoutes());
 	}
 
 	@Override
@@ -105,6 +720,7 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 	@Override
 	public void close() {
 		try {
+			this.coalescer.flush();
 			this.stopMessageServer();
 			this.provider = null;
 		} catch (Exception e) {
@@ -120,10 +736,114 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 	 */
 	@Override
 	public void notify(Map<String, Object> map) {
+		try {
+			boolean invalidate = this.readCache.isEnabled();
+			if (!invalidate && this.subscriptions.isEmpty()) {
+				LOG.log(Level.FINEST, "Dropped notification without subscribers: {0}", map.keySet());
+				return;
+			}
+
+			/* subscribed keys per client which pass the filter of the subscription */
+			boolean filter = !this.filters.isEmpty();
+			/* values converted once to compare them with the last sent values */
+			Map<String, ParamValue> converted = this.suppressDuplicates ? new HashMap<String, ParamValue>() : null;
+			Map<Connection, List<String>> subscribed = null;
+			for (Map.Entry<String, Object> e : map.entrySet()) {
+				String key = e.getKey();
+				String id = SubscriptionRegistry.toId(key);
+				if (invalidate)
+					this.readCache.invalidate(id);
+				ParamValue value = null;
+				for (Connection connection : this.subscriptions.get(id)) {
+					if (filter && !this.filters.accept(connection, id, key, e.getValue()))
+						continue;
+					if (converted != null) {
+						if (value == null)
+							converted.put(key, value = new ParamValue(e.getValue()));
+						if (!this.lastSent.update(connection, id, value))
+							continue;
+					}
+					if (subscribed == null)
+						subscribed = new HashMap<>();
+					List<String> keys = subscribed.get(connection);
+					if (keys == null)
+						subscribed.put(connection, keys = new ArrayList<>());
+					keys.add(key);
+				}
+			}
+			if (subscribed == null) {
+				LOG.log(Level.FINEST, "Dropped notification without subscribers: {0}", map.keySet());
+				return;
+			}
+
+			/* clients subscribed to the same keys share one notification */
+			Map<List<String>, List<Connection>> recipients = new HashMap<>();
+			for (Map.Entry<Connection, List<String>> e : subscribed.entrySet()) {
+				List<Connection> connections = recipients.get(e.getValue());
+				if (connections == null)
+					recipients.put(e.getValue(), connections = new ArrayList<>());
+				connections.add(e.getKey());
+			}
+
+			boolean coalesce = this.coalescer.isEnabled();
+			for (Map.Entry<List<String>, List<Connection>> e : recipients.entrySet()) {
+				Notification n = new Notification();
+				if (converted != null) {
+					for (String key : e.getKey())
+						n.getParamMap().put(new ParamId(key, true), converted.get(key));
+				} else {
+					Map<String, Object> params = map;
+					if (e.getKey().size() < map.size()) {
+						params = new LinkedHashMap<>();
+						for (String key : e.getKey())
+							params.put(key, map.get(key));
+					}
+					n.setUntypedParamMap(params);
+				}
+				if (coalesce) {
+					this.coalescer.add(e.getValue(), n.getParamMap());
+					continue;
+				}
+				this.msgServer.submit(e.getValue(), MessageSerializer.serialize(n, this.msgServer.getWriteBufferPool()),
+						true);
+				LOG.log(Level.FINEST, "SENT: {0}", n);
+			}
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, "Failed to send notify: {0}", e);
+		}
+	}
+
+	/**
+	 * Sends the value of a parameter kept back by a subscription filter
+	 */
+	private void publish(Connection connection, String key, Object value) {
+		try {
+			Notification n = new Notification();
+			n.setUntypedParamMap(Collections.singletonMap(key, value));
+			if (this.suppressDuplicates && !this.lastSent.update(connection, SubscriptionRegistry.toId(key),
+					n.getParamMap().values().iterator().next()))
+				return;
+			if (this.coalescer.isEnabled()) {
+				this.coalescer.add(Collections.singletonList(connection), n.getParamMap());
+				return;
+			}
+			this.msgServer.submit(Collections.singletonList(connection),
+					MessageSerializer.serialize(n, this.msgServer.getWriteBufferPool()), true);
+			LOG.log(Level.FINEST, "SENT: {0}", n);
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, "Failed to send notify: {0}", e);
+		}
+	}
+
+	/**
+	 * Sends the values coalesced within the notification window
+	 */
+	private void send(Collection<Connection> recipients, Map<ParamId, ParamValue> params) {
 		try {
 			Notification n = new Notification();
-			n.setUntypedParamMap(map);
-			this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(n)));
+			n.setParamMap(params);
+			this.msgServer.submit(recipients, MessageSerializer.serialize(n, this.msgServer.getWriteBufferPool()),
+					true);
 			LOG.log(Level.FINEST, "SENT: {0}", n);
 		} catch (Exception e) {
 			LOG.log(Level.SEVERE, "Failed to send notify: {0}", e);
@@ -136,23 +856,30 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 		try {
 			Event e = new Event(eventId, paramId, timestamp, severity, message);
 			e.setUntypedParamMap(map);
-			this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(e)));
+			this.msgServer.submit(MessageSerializer.serialize(e, this.msgServer.getWriteBufferPool()), true);
 			LOG.log(Level.FINEST, "SENT: {0}", e);
 		} catch (Exception ex) {
 			LOG.log(Level.SEVERE, "Failed to send event: {0}", ex);
 		}
 	}
 
+	/**
+	 * Deserializes a received message on the selector thread and dispatches
+	 * it. Requests for a parameter are handled by the worker pool in the order
+	 * of their arrival, requests for different parameters run in parallel.
+	 */
 	@Override
-	public void received(MessageHeader msgHdr, ByteBuffer msgBodyBytes) {
-		Message msg = null;
+	public void received(final Connection connection, MessageHeader msgHdr, ByteBuffer msgBodyBytes) {
+		final Message msg;
 
 		try {
 			msg = MessageDeserializer.deserialize(msgHdr, msgBodyBytes);
 		} catch (Exception ex) {
 			LOG.log(Level.SEVERE, "Failed to deserialize message: type={0}, size={1}, id={2}, body={3}",
 					new Object[] { msgHdr.getMessageType(), msgHdr.getMessageLength(), msgHdr.getMessageId(),
-							bytesToHex(msgBodyBytes.array()) });
+							bytesToHex(toArray(msgBodyBytes)) });
+			respond(connection, msgHdr, Status.INVALID_MESSAGE);
+			return;
 		}
 
 		if (LOG.isLoggable(Level.FINEST))
@@ -164,78 +891,153 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 					+ "responded with status 'INVALID_MESSAGE'.");
 		}
 
-		Status status = null;
-		ParamValue result = null;
+		ParamId paramId = getRequestParamId(msg);
+		if (paramId == null) {
+			handle(connection, msg);
+			return;
+		}
 
-		switch (msgHdr.getMessageType()) {
+		if (msg instanceof Read) {
+			/* writes queued before the read must not be coalesced with later ones */
+			if (!this.queuedWrites.isEmpty())
+				this.queuedWrites.remove(paramId);
 
-		case READ:
-			Read r = (Read) msg;
-			LOG.log(Level.FINEST, "RECV: {0}", r);
+			if (readCached(connection, (Read) msg))
+				return;
 
-			try {
-				Object obj = this.provider.read((r.getParamId().isNumeric() ? "#" : "") + r.getParamId().getValue());
+			final PendingRead pendingRead = joinRead(connection, (Read) msg);
+			if (pendingRead == null)
+				return;
 
-				result = new ParamValue(obj);
-				status = Status.SUCCESS;
-			} catch (IllegalArgumentException ex) {
-				LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_TYPE, ex);
-				status = Status.INVALID_PARAM_TYPE;
-			} catch (NoSuchParameterException ex) {
-				// level FINE instead of ERROR due to unused variables
-				LOG.log(Level.FINE, "Cannot read data: " + Status.INVALID_PARAMETER, ex);
-				status = Status.INVALID_PARAMETER;
-			} catch (ParameterException ex) {
-				LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_VALUE, ex);
-				status = Status.INVALID_PARAM_VALUE;
-			} catch (Exception ex) {
-				LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_VALUE, ex);
-				status = Status.INVALID_MESSAGE;
+			try {
+				this.dispatcher.execute(toProviderId(paramId), new Runnable() {
+					@Override
+					public void run() {
+						read((Read) msg, pendingRead);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				/* requesters which joined meanwhile are answered as well */
+				readCompleted(paramId, pendingRead, null, e);
 			}
+			return;
+		}
 
-			ReadResponse rr = status == Status.SUCCESS ? new ReadResponse(r, result, status)
-					: new ReadResponse(msgHdr.getMessageId(), status);
-
-			try {
-				this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(rr)));
-				LOG.log(Level.FINEST, "RESP: {0}", rr);
+		/* reads received after a write must not join a read pending before */
+		if (msg instanceof Write) {
+			this.pendingReads.remove(paramId);
+			this.readCache.invalidate(toProviderId(paramId));
 
-			} catch (IOException e) {
-				LOG.log(Level.SEVERE, "Failed to send READ_RESP. ", e);
+			if (this.coalesceWrites) {
+				queueWrite(connection, (Write) msg);
+				return;
 			}
+		}
 
-			break;
+		try {
+			this.dispatcher.execute(toProviderId(paramId), new Runnable() {
+				@Override
+				public void run() {
+					handle(connection, msg);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.log(Level.WARNING, "Cannot handle request: " + Status.SERVER_BUSY + ", {0}", e.getMessage());
+			respond(connection, msgHdr, Status.SERVER_BUSY);
+		}
+	}
 
+	/**
+	 * Answers a request which cannot be deserialized or handled with a status
+	 * only, the header holds the message type and ID of the request
+	 */
+	private void respond(Connection connection, MessageHeader msgHdr, Status status) {
+		if (msgHdr.getMessageType() == null)
+			return;
+
+		Message response;
+		switch (msgHdr.getMessageType()) {
+		case READ:
+			response = new ReadResponse(msgHdr.getMessageId(), status);
+			break;
 		case WRITE:
-			Write w = (Write) msg;
-			LOG.log(Level.FINEST, "RESV: {0}", w);
+			response = new WriteResponse(msgHdr.getMessageId(), status);
+			break;
+		case SUBSCRIBE:
+			response = new SubscribeResponse(msgHdr.getMessageId(), status);
+			break;
+		case UNSUBSCRIBE:
+			response = new UnsubscribeResponse(msgHdr.getMessageId(), status);
+			break;
+		case CALL:
+			response = new CallResponse(msgHdr.getMessageId(), status);
+			break;
+		default:
+			/* responses, notifications and events are not answered */
+			return;
+		}
 
-			try {
-				this.provider.write((w.getParamId().isNumeric() ? "#" : "") + w.getParamId().getValue(),
-						w.getParamValue().asGeneric());
-				status = Status.SUCCESS;
-			} catch (NullPointerException npe) {
-				LOG.log(Level.SEVERE, "Cannot write data: " + Status.INVALID_MESSAGE, npe);
-				status = Status.INVALID_MESSAGE;
-			} catch (NoSuchParameterException ex) {
-				// level FINE instead of ERROR due to unused variables
-				LOG.log(Level.FINE, "Cannot write data: " + Status.INVALID_PARAMETER, ex);
-				status = Status.INVALID_PARAMETER;
-			} catch (ParameterException ex) {
-				LOG.log(Level.SEVERE, "Cannot write data: " + Status.INVALID_PARAM_VALUE, ex);
-				status = Status.INVALID_PARAM_VALUE;
-			}
+		try {
+			this.submit(connection, response);
+			LOG.log(Level.FINEST, "RESP: {0}", response);
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Failed to send " + msgHdr.getMessageType() + "_RESP.", e);
+		}
+	}
+
+	/**
+	 * @return the parameter of a read, write, subscribe or unsubscribe
+	 *         request, null for other messages
+	 */
+	private static ParamId getRequestParamId(Message msg) {
+		if (msg instanceof Read)
+			return ((Read) msg).getParamId();
+		if (msg instanceof Write)
+			return ((Write) msg).getParamId();
+		if (msg instanceof Subscribe)
+			return ((Subscribe) msg).getParamId();
+		if (msg instanceof Unsubscribe)
+			return ((Unsubscribe) msg).getParamId();
+		return null;
+	}
+
+	/**
+	 * @return the parameter ID as passed to the data provider
+	 */
+	private static String toProviderId(ParamId paramId) {
+		return (paramId.isNumeric() ? "#" : "") + paramId.getValue();
+	}
+
+	private void handle(Connection connection, Message msg) {
+		MessageHeader msgHdr = msg.getMessageHeader();
+		Status status = null;
+		ParamValue result = null;
+
+		/* reads are invoked by received() as they may join a pending read */
+		switch (msgHdr.getMessageType()) {
 
-			WriteResponse wr = status == Status.SUCCESS ? new WriteResponse(w, status)
-					: new WriteResponse(msgHdr.getMessageId(), status);
+		case WRITE:
+			final Write w = (Write) msg;
+			LOG.log(Level.FINEST, "RESV: {0}", w);
 
+			final Deadline writeDeadline = startDeadline(this.writeTimeout, toProviderId(w.getParamId()), connection,
+					new WriteResponse(msgHdr.getMessageId(), Status.TIMEOUT));
+			CompletionStage<Void> writeStage;
 			try {
-				this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(wr)));
-				LOG.log(Level.FINEST, "RESP: {0}", wr);
-			} catch (IOException e) {
-				LOG.log(Level.SEVERE, "Failed to send WRITE_RESP. ", e);
+				String writeId = toProviderId(w.getParamId());
+				writeStage = getAsyncProvider(w.getParamId(), writeId).writeAsync(writeId, w.getParamValue().asGeneric());
+			} catch (Exception ex) {
+				writeStage = failed(ex);
 			}
+			watch(writeDeadline, writeStage);
 
+			writeStage.whenComplete(new BiConsumer<Void, Throwable>() {
+				@Override
+				public void accept(Void v, Throwable error) {
+					if (writeDeadline.complete())
+						writeCompleted(connection, w, error);
+				}
+			});
 			break;
 
 		case SUBSCRIBE:
@@ -243,8 +1045,32 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 			LOG.log(Level.FINEST, "RESV: {0}", s);
 
 			try {
-				this.provider.subscribe((s.getParamId().isNumeric() ? "#" : "") + s.getParamId().getValue());
-				status = Status.SUCCESS;
+				/* an ID ending with '*' subscribes all parameters with the prefix */
+				String subscribeId = toProviderId(s.getParamId());
+				SubscriptionFilters.Filter filter = SubscriptionFilters.create(s.getFilters());
+				/* parameters of providers which do not notify changes are sampled */
+				int defaultInterval = getPollInterval(s.getParamId(), subscribeId);
+				if (defaultInterval > 0 && SubscriptionRegistry.isWildcard(subscribeId)) {
+					/* the parameters matching a wildcard are unknown, so they cannot be sampled */
+					LOG.log(Level.FINE, "Cannot subscribe: " + Status.INVALID_PARAMETER
+							+ ", wildcard of a provider which does not notify changes: {0}", subscribeId);
+					status = Status.INVALID_PARAMETER;
+				} else {
+					getProvider(s.getParamId(), subscribeId).subscribe(subscribeId);
+					connection.getSubscriptions().add(s.getParamId());
+					this.filters.set(connection, subscribeId, filter);
+					this.lastSent.remove(connection, subscribeId);
+					this.subscriptions.add(subscribeId, connection);
+					if (defaultInterval > 0) {
+						long interval = PollingScheduler.getSamplingInterval(s.getFilters());
+						this.polling.add(subscribeId, s.getParamId(), interval > 0 ? interval : defaultInterval,
+								connection);
+					}
+					status = Status.SUCCESS;
+				}
+			} catch (IllegalArgumentException ex) {
+				LOG.log(Level.FINE, "Cannot subscribe: " + Status.INVALID_PARAM_VALUE, ex);
+				status = Status.INVALID_PARAM_VALUE;
 			} catch (NullPointerException npe) {
 				LOG.log(Level.SEVERE, "Cannot subscribe: " + Status.INVALID_MESSAGE, npe);
 				status = Status.INVALID_MESSAGE;
@@ -261,7 +1087,7 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 					: new SubscribeResponse(msgHdr.getMessageId(), status);
 
 			try {
-				this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(sr)));
+				this.submit(connection, sr);
 				LOG.log(Level.FINE, "RESP: {0}", sr);
 
 			} catch (IOException e) {
@@ -275,7 +1101,13 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 			LOG.log(Level.FINEST, "RECV: {0}", u);
 
 			try {
-				this.provider.unsubscribe((u.getParamId().isNumeric() ? "#" : "") + u.getParamId().getValue());
+				connection.getSubscriptions().remove(u.getParamId());
+				String unsubscribeId = toProviderId(u.getParamId());
+				this.filters.remove(connection, unsubscribeId);
+				this.polling.remove(unsubscribeId, connection);
+				this.lastSent.remove(connection, unsubscribeId);
+				if (this.subscriptions.remove(unsubscribeId, connection))
+					getProvider(u.getParamId(), unsubscribeId).unsubscribe(unsubscribeId);
 				status = Status.SUCCESS;
 			} catch (NullPointerException npe) {
 				LOG.log(Level.SEVERE, "Cannot unsubscribe: " + Status.INVALID_MESSAGE, npe);
@@ -293,7 +1125,7 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 					: new UnsubscribeResponse(msgHdr.getMessageId(), status);
 
 			try {
-				this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(ur)));
+				this.submit(connection, ur);
 				LOG.log(Level.FINEST, "RESP: {0}", ur);
 
 			} catch (IOException e) {
@@ -306,7 +1138,34 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 
 			final Call c = (Call) msg;
 			LOG.log(Level.FINEST, "RESV: {0}", c);
-			new Thread(new CallThread(msgHdr, c), CallThread.class.getSimpleName()).start();
+
+			ByteBuffer callKey = null;
+			if (this.callCache.getTtl(toProviderId(c.getMethodId())) > 0) {
+				callKey = CallCache.key(c);
+				ByteBuffer bb = this.callCache.get(callKey, msgHdr.getMessageId(), this.msgServer.getWriteBufferPool());
+				if (bb != null) {
+					try {
+						this.msgServer.submit(connection, bb, true);
+						LOG.log(Level.FINEST, "RESP (cached): {0}", c);
+					} catch (IOException e) {
+						LOG.log(Level.SEVERE, "Failed to send CALL_RESP.", e);
+					}
+					break;
+				}
+			}
+
+			if (!this.callExecutor.execute(new CallThread(connection, msgHdr, c, callKey))) {
+				LOG.log(Level.WARNING, "Cannot call method: " + Status.SERVER_BUSY + ", {0} calls pending",
+						this.callExecutor.getQueuedCount() + this.callExecutor.getActiveCount());
+
+				CallResponse cr = new CallResponse(msgHdr.getMessageId(), Status.SERVER_BUSY);
+				try {
+					this.submit(connection, cr);
+					LOG.log(Level.FINEST, "RESP: {0}", cr);
+				} catch (IOException e) {
+					LOG.log(Level.SEVERE, "Failed to send CALL_RESP.", e);
+				}
+			}
 			break;
 
 		case NOTIFICATION:
@@ -322,20 +1181,471 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 
 	}
 
+	/**
+	 * Queues a write which supersedes a write of the parameter still waiting
+	 * in the queue
+	 */
+	private void queueWrite(final Connection connection, final Write w) {
+		final ParamId paramId = w.getParamId();
+		final QueuedWrite queued = new QueuedWrite(connection, w);
+
+		QueuedWrite previous = this.queuedWrites.put(paramId, queued);
+		if (previous != null && previous.supersede()) {
+			this.coalescedWrites.incrementAndGet();
+			WriteResponse wr = new WriteResponse(previous.write, Status.SUPERSEDED);
+			try {
+				this.submit(previous.connection, wr);
+				LOG.log(Level.FINEST, "RESP: {0}", wr);
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Failed to send WRITE_RESP. ", e);
+			}
+		}
+
+		try {
+			this.dispatcher.execute(toProviderId(paramId), new Runnable() {
+				@Override
+				public void run() {
+					if (!queued.start())
+						return;
+					MessageHandlerCommon.this.queuedWrites.remove(paramId, queued);
+					handle(connection, w);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			/* a write superseding it meanwhile has answered it already */
+			if (!queued.start())
+				return;
+			this.queuedWrites.remove(paramId, queued);
+			LOG.log(Level.WARNING, "Cannot handle request: " + Status.SERVER_BUSY + ", {0}", e.getMessage());
+			respond(connection, w.getMessageHeader(), Status.SERVER_BUSY);
+		}
+	}
+
+	/**
+	 * Answers a read from the cache
+	 *
+	 * @return false if there is no cached response
+	 */
+	private boolean readCached(Connection connection, Read r) {
+		String id = toProviderId(r.getParamId());
+		if (this.readCache.getTtl(id) <= 0)
+			return false;
+
+		ByteBuffer bb = this.readCache.get(id, r.getParamId(), r.getMessageHeader().getMessageId(),
+				this.msgServer.getWriteBufferPool());
+		if (bb == null)
+			return false;
+
+		try {
+			this.msgServer.submit(connection, bb, true);
+			LOG.log(Level.FINEST, "RESP (cached): {0}", r);
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Failed to send READ_RESP. ", e);
+		}
+		return true;
+	}
+
+	/**
+	 * Registers the requester of a read with the pending read of the
+	 * parameter. Concurrent reads of a parameter share a single data provider
+	 * invocation, each requester gets its own response.
+	 *
+	 * @return the new pending read to invoke the data provider for, null if
+	 *         the requester joined a pending read
+	 */
+	private PendingRead joinRead(Connection connection, Read r) {
+		ParamId paramId = r.getParamId();
+		while (true) {
+			PendingRead pendingRead = this.pendingReads.get(paramId);
+			if (pendingRead == null) {
+				String id = toProviderId(paramId);
+				PendingRead newRead = new PendingRead(connection, r,
+						this.readCache.getTtl(id) > 0 ? this.readCache.version(id) : 0);
+				if (this.pendingReads.putIfAbsent(paramId, newRead) == null)
+					return newRead;
+			} else if (pendingRead.join(connection, r)) {
+				this.coalescedReads.incrementAndGet();
+				LOG.log(Level.FINEST, "Joined pending read: {0}", r);
+				return null;
+			} else {
+				/* completed meanwhile */
+				this.pendingReads.remove(paramId, pendingRead);
+			}
+		}
+	}
+
+	/**
+	 * Invokes the data provider for a pending read
+	 */
+	private void read(Read r, final PendingRead pendingRead) {
+		LOG.log(Level.FINEST, "RECV: {0}", r);
+
+		final ParamId paramId = r.getParamId();
+		final String readId = toProviderId(paramId);
+		final Deadline deadline = startDeadline(this.readTimeout, readId, new Runnable() {
+			@Override
+			public void run() {
+				readCompleted(paramId, pendingRead, null, new TimeoutException("Read of " + readId + " timed out"));
+			}
+		});
+		CompletionStage<Object> stage;
+		try {
+			stage = getAsyncProvider(paramId, readId).readAsync(readId);
+		} catch (Exception ex) {
+			stage = failed(ex);
+		}
+		watch(deadline, stage);
+
+		stage.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object obj, Throwable error) {
+				/* an expired read is completed by the deadline */
+				if (deadline.complete())
+					readCompleted(paramId, pendingRead, obj, error);
+			}
+		});
+	}
+
+	/**
+	 * Invokes the data provider for a sampled parameter. The provider is
+	 * invoked by the dispatcher, so a blocking read does not delay the
+	 * sampling of other parameters, and is bounded by the read timeout.
+	 */
+	private CompletionStage<Object> sample(final ParamId paramId, final String id) {
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		try {
+			this.dispatcher.execute(id, new Runnable() {
+				@Override
+				public void run() {
+					final Deadline deadline = startDeadline(MessageHandlerCommon.this.readTimeout, id, new Runnable() {
+						@Override
+						public void run() {
+							future.completeExceptionally(new TimeoutException("Read of " + id + " timed out"));
+						}
+					});
+					CompletionStage<Object> stage;
+					try {
+						stage = getAsyncProvider(paramId, id).readAsync(id);
+					} catch (Exception ex) {
+						stage = failed(ex);
+					}
+					watch(deadline, stage);
+
+					stage.whenComplete(new BiConsumer<Object, Throwable>() {
+						@Override
+						public void accept(Object obj, Throwable error) {
+							/* an expired read is completed by the deadline */
+							if (!deadline.complete())
+								return;
+							if (error != null)
+								future.completeExceptionally(error);
+							else
+								future.complete(obj);
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Completes a pending read with the result of the data provider
+	 */
+	private void readCompleted(ParamId paramId, PendingRead pendingRead, Object obj, Throwable error) {
+		/* later reads invoke the data provider again */
+		this.pendingReads.remove(paramId, pendingRead);
+
+		ParamValue result = null;
+		if (error == null) {
+			try {
+				result = new ParamValue(obj);
+			} catch (IllegalArgumentException ex) {
+				error = ex;
+			}
+		}
+
+		String id = toProviderId(paramId);
+		if (error == null && this.readCache.getTtl(id) > 0) {
+			try {
+				this.readCache.put(id, pendingRead.cacheVersion, paramId,
+						MessageSerializer.serialize(new ReadResponse(pendingRead.requests.get(0), result, Status.SUCCESS)));
+			} catch (Exception ex) {
+				LOG.log(Level.SEVERE, "Cannot cache read response of " + paramId, ex);
+			}
+		}
+		pendingRead.complete(result, error);
+	}
+
+	/**
+	 * Sends the response of a completed read
+	 */
+	private void readCompleted(Connection connection, Read r, ParamValue value, Throwable error) {
+		Status status = null;
+		ParamValue result = null;
+
+		try {
+			if (error != null)
+				throw toException(error);
+
+			result = value;
+			status = Status.SUCCESS;
+		} catch (IllegalArgumentException ex) {
+			LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_TYPE, ex);
+			status = Status.INVALID_PARAM_TYPE;
+		} catch (NoSuchParameterException ex) {
+			// level FINE instead of ERROR due to unused variables
+			LOG.log(Level.FINE, "Cannot read data: " + Status.INVALID_PARAMETER, ex);
+			status = Status.INVALID_PARAMETER;
+		} catch (ParameterException ex) {
+			LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_VALUE, ex);
+			status = Status.INVALID_PARAM_VALUE;
+		} catch (TimeoutException ex) {
+			LOG.log(Level.FINE, "Cannot read data: " + Status.TIMEOUT, ex);
+			status = Status.TIMEOUT;
+		} catch (RejectedExecutionException ex) {
+			LOG.log(Level.WARNING, "Cannot read data: " + Status.SERVER_BUSY + ", {0}", ex.getMessage());
+			status = Status.SERVER_BUSY;
+		} catch (Exception ex) {
+			LOG.log(Level.SEVERE, "Cannot read data: " + Status.INVALID_PARAM_VALUE, ex);
+			status = Status.INVALID_MESSAGE;
+		}
+
+		ReadResponse rr = status == Status.SUCCESS ? new ReadResponse(r, result, status)
+				: new ReadResponse(r.getMessageHeader().getMessageId(), status);
+
+		try {
+			this.submit(connection, rr);
+			LOG.log(Level.FINEST, "RESP: {0}", rr);
+
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Failed to send READ_RESP. ", e);
+		}
+	}
+
+	/**
+	 * Sends the response of a completed write
+	 */
+	private void writeCompleted(Connection connection, Write w, Throwable error) {
+		Status status = null;
+
+		try {
+			if (error != null)
+				throw toException(error);
+
+			status = Status.SUCCESS;
+		} catch (NullPointerException npe) {
+			LOG.log(Level.SEVERE, "Cannot write data: " + Status.INVALID_MESSAGE, npe);
+			status = Status.INVALID_MESSAGE;
+		} catch (NoSuchParameterException ex) {
+			// level FINE instead of ERROR due to unused variables
+			LOG.log(Level.FINE, "Cannot write data: " + Status.INVALID_PARAMETER, ex);
+			status = Status.INVALID_PARAMETER;
+		} catch (ParameterException ex) {
+			LOG.log(Level.SEVERE, "Cannot write data: " + Status.INVALID_PARAM_VALUE, ex);
+			status = Status.INVALID_PARAM_VALUE;
+		} catch (Exception ex) {
+			LOG.log(Level.SEVERE, "Cannot write data: " + Status.INVALID_MESSAGE, ex);
+			status = Status.INVALID_MESSAGE;
+		}
+
+		WriteResponse wr = status == Status.SUCCESS ? new WriteResponse(w, status)
+				: new WriteResponse(w.getMessageHeader().getMessageId(), status);
+
+		try {
+			this.submit(connection, wr);
+			LOG.log(Level.FINEST, "RESP: {0}", wr);
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Failed to send WRITE_RESP. ", e);
+		}
+	}
+
+	/**
+	 * @return the provider of the route of the parameter or method, the
+	 *         default data provider if there is no route
+	 */
+	private DataProvider getProvider(ParamId paramId, String providerId) {
+		ProviderRouter router = this.router;
+		ProviderRouter.Route route = router == null ? null : router.route(paramId, providerId);
+		return route == null ? this.provider : route.getProvider();
+	}
+
+	/**
+	 * @return the provider of the route of the ID prefix, the default data
+	 *         provider if there is no route
+	 */
+	private DataProvider getProvider(String providerId) {
+		ProviderRouter router = this.router;
+		ProviderRouter.Route route = router == null ? null : router.route(providerId);
+		return route == null ? this.provider : route.getProvider();
+	}
+
+	/**
+	 * @return the sampling interval of the route of the parameter or the
+	 *         default data provider, 0 if the provider notifies changes
+	 */
+	private int getPollInterval(ParamId paramId, String providerId) {
+		ProviderRouter router = this.router;
+		ProviderRouter.Route route = router == null ? null : router.route(paramId, providerId);
+		return route == null ? this.pollInterval : route.getPollInterval();
+	}
+
+	/**
+	 * @return the asynchronous provider of the route of the parameter or
+	 *         method, the default data provider if there is no route
+	 */
+	private AsyncDataProvider getAsyncProvider(ParamId paramId, String providerId) {
+		ProviderRouter router = this.router;
+		ProviderRouter.Route route = router == null ? null : router.route(paramId, providerId);
+		return route == null ? getAsyncProvider() : route.getAsyncProvider();
+	}
+
+	/**
+	 * @return the data provider as asynchronous provider, blocking providers
+	 *         are invoked by the calling thread
+	 */
+	private AsyncDataProvider getAsyncProvider() {
+		DataProvider provider = this.provider;
+		if (provider instanceof AsyncDataProvider)
+			return (AsyncDataProvider) provider;
+
+		AsyncDataProviderAdapter adapter = this.providerAdapter;
+		if (adapter == null || adapter.getProvider() != provider) {
+			adapter = new AsyncDataProviderAdapter(provider);
+			this.providerAdapter = adapter;
+		}
+		return adapter;
+	}
+
+	private static <T> CompletionStage<T> failed(Throwable error) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	/**
+	 * Lets the deadline cancel the pending invocation, the current thread
+	 * continues with other requests.
+	 */
+	private static void watch(Deadline deadline, CompletionStage<?> stage) {
+		if (stage instanceof Future)
+			deadline.watch((Future<?>) stage);
+		deadline.detach();
+	}
+
+	/**
+	 * Waits for the completion of an invocation
+	 *
+	 * @throws Exception
+	 *             the exception the invocation failed with
+	 */
+	private static <T> T await(CompletionStage<T> stage) throws Exception {
+		try {
+			return stage.toCompletableFuture().get();
+		} catch (ExecutionException e) {
+			throw toException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the exception an invocation failed with
+	 */
+	private static Exception toException(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null)
+			error = error.getCause();
+		return error instanceof Exception ? (Exception) error : new ExecutionException(error);
+	}
+
+	/**
+	 * Starts the deadline of a data provider invocation by the current thread.
+	 * If it expires, the timeout response is sent to the connection.
+	 */
+	private Deadline startDeadline(int timeout, String id, final Connection connection,
+			final Message timeoutResponse) {
+		if (timeout <= 0)
+			return Deadlines.NONE;
+
+		return startDeadline(timeout, id, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					MessageHandlerCommon.this.submit(connection, timeoutResponse);
+					LOG.log(Level.FINEST, "RESP: {0}", timeoutResponse);
+				} catch (IOException e) {
+					LOG.log(Level.SEVERE, "Failed to send " + timeoutResponse.getMessageHeader().getMessageType() + ".", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts the deadline of a data provider invocation by the current thread
+	 * with an action to run if it expires
+	 */
+	private Deadline startDeadline(final int timeout, final String id, final Runnable timeoutAction) {
+		if (timeout <= 0)
+			return Deadlines.NONE;
+
+		return this.deadlines.start(timeout, id, new Runnable() {
+			@Override
+			public void run() {
+				LOG.log(Level.WARNING, "Data provider invocation for {0} timed out after {1} ms",
+						new Object[] { id, timeout });
+				timeoutAction.run();
+			}
+		});
+	}
+
+	/**
+	 * Serializes a response into a pooled write buffer and queues it for the
+	 * requesting connection.
+	 */
+	private void submit(Connection connection, Message msg) throws IOException {
+		this.msgServer.submit(connection, MessageSerializer.serialize(msg, this.msgServer.getWriteBufferPool()), true);
+	}
+
 	@Override
-	public void sent(ByteBuffer bb) {
+	public void sent(Connection connection, ByteBuffer bb) {
 		if (LOG.isLoggable(Level.FINEST))
-			LOG.log(Level.FINEST, "Sent: {0}", bytesToHex(bb.array()));
+			LOG.log(Level.FINEST, "Sent: {0}", bytesToHex(toArray(bb)));
 	}
 
 	@Override
-	public void accepted(SocketAddress remoteHost) {
-		LOG.log(Level.FINEST, "Connected: {0}", remoteHost);
+	public void accepted(Connection connection) {
+		LOG.log(Level.FINEST, "Connected: {0}", connection);
 	}
 
 	@Override
-	public void disconnected(SocketAddress remoteHost) {
-		LOG.log(Level.FINEST, "Disconnected: {0}", remoteHost);
+	public void disconnected(Connection connection) {
+		LOG.log(Level.FINEST, "Disconnected: {0}", connection);
+
+		List<String> unsubscribed = this.subscriptions.removeAll(connection);
+		this.filters.removeAll(connection);
+		this.polling.removeAll(connection);
+		this.coalescer.remove(connection);
+		this.lastSent.removeAll(connection);
+		if (this.provider == null)
+			return;
+
+		/* keep the subscriptions and the scan of the remaining clients */
+		if (!this.msgServer.getConnections().isEmpty()) {
+			for (ParamId paramId : connection.getSubscriptions()) {
+				String id = toProviderId(paramId);
+				if (!unsubscribed.remove(id))
+					continue;
+				try {
+					LOG.log(Level.FINEST, "Resetting subscription {0}.", paramId);
+					getProvider(paramId, id).unsubscribe(id);
+				} catch (ParameterException e) {
+					LOG.log(Level.SEVERE, "Failed to reset subscription " + paramId + ".", e);
+				}
+			}
+			connection.getSubscriptions().clear();
+			return;
+		}
+		connection.getSubscriptions().clear();
 
 		try {
 			LOG.log(Level.FINEST, "Resetting subscriptions.");
@@ -343,10 +1653,20 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 		} catch (ParameterException e) {
 			LOG.log(Level.SEVERE, "Failed to reset subscriptions.", e);
 		}
+		ProviderRouter router = this.router;
+		if (router != null) {
+			for (ProviderRouter.Route route : router.getRoutes()) {
+				try {
+					route.getProvider().unsubscribe("*");
+				} catch (ParameterException e) {
+					LOG.log(Level.SEVERE, "Failed to reset subscriptions of route " + route.getName() + ".", e);
+				}
+			}
+		}
 
 		try {
 			LOG.log(Level.FINEST, "Stopping scan.");
-			this.provider.call("rfr310.ScanStop", "rfr310", new Object[] {});
+			getProvider("rfr310.ScanStop").call("rfr310.ScanStop", "rfr310", new Object[] {});
 		} catch (ApplicationException aex) {
 			/* no matter if no scan is running */
 		} catch (ParameterException e) {
@@ -356,7 +1676,7 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 
 	@Override
 	public void rejected(SocketAddress remoteHost) {
-		LOG.log(Level.FINEST, "Connection attempt rejected because of a connection already exists to host: {0}",
+		LOG.log(Level.FINEST, "Connection attempt of host {0} rejected because the maximum number of connections is reached",
 				remoteHost);
 	}
 
@@ -365,6 +1685,17 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 		LOG.log(Level.FINER, "An error occurred.", error);
 	}
 
+	/**
+	 * @return a copy of all bytes of the buffer regardless of its position
+	 */
+	private static byte[] toArray(ByteBuffer bb) {
+		ByteBuffer copy = bb.duplicate();
+		copy.rewind();
+		byte[] bytes = new byte[copy.remaining()];
+		copy.get(bytes);
+		return bytes;
+	}
+
 	public static String bytesToHex(byte[] bytes) {
 		if (bytes == null)
 			return null;
@@ -386,21 +1717,136 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 		return sb.toString();
 	}
 
+	/**
+	 * A read of a parameter pending at the data provider with the requesters
+	 * waiting for it in the order of their arrival
+	 */
+	class PendingRead {
+		private final List<Connection> connections = new ArrayList<>(1);
+		private final List<Read> requests = new ArrayList<>(1);
+		/* the read cache version taken before the data provider is invoked */
+		private final long cacheVersion;
+		private boolean completed;
+
+		PendingRead(Connection connection, Read r, long cacheVersion) {
+			this.connections.add(connection);
+			this.requests.add(r);
+			this.cacheVersion = cacheVersion;
+		}
+
+		/**
+		 * @return false if the read already completed
+		 */
+		synchronized boolean join(Connection connection, Read r) {
+			if (completed)
+				return false;
+			this.connections.add(connection);
+			this.requests.add(r);
+			return true;
+		}
+
+		/**
+		 * Sends the response to each requester, only the first call completes
+		 * the read
+		 */
+		void complete(ParamValue result, Throwable error) {
+			synchronized (this) {
+				if (completed)
+					return;
+				completed = true;
+			}
+			for (int i = 0; i < requests.size(); i++)
+				readCompleted(connections.get(i), requests.get(i), result, error);
+		}
+	}
+
+	/**
+	 * A write waiting in the queue which may be superseded by a later write of
+	 * the parameter until it starts
+	 */
+	static class QueuedWrite {
+		private static final int QUEUED = 0;
+		private static final int STARTED = 1;
+		private static final int SUPERSEDED = 2;
+
+		final Connection connection;
+		final Write write;
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+		QueuedWrite(Connection connection, Write write) {
+			this.connection = connection;
+			this.write = write;
+		}
+
+		/**
+		 * @return false if the write has been superseded
+		 */
+		boolean start() {
+			return state.compareAndSet(QUEUED, STARTED);
+		}
+
+		/**
+		 * @return false if the write already started
+		 */
+		boolean supersede() {
+			return state.compareAndSet(QUEUED, SUPERSEDED);
+		}
+	}
+
 	class CallThread implements Runnable {
+		private Connection connection;
 		private Call c;
 		private MessageHeader msgHeader;
+		private ByteBuffer cacheKey;
 
-		public CallThread(MessageHeader msgHeader, Call c) {
+		public CallThread(Connection connection, MessageHeader msgHeader, Call c) {
+			this(connection, msgHeader, c, null);
+		}
+
+		/**
+		 * @param cacheKey
+		 *            the call cache key of a cacheable method, null otherwise
+		 */
+		public CallThread(Connection connection, MessageHeader msgHeader, Call c, ByteBuffer cacheKey) {
+			this.connection = connection;
 			this.c = c;
 			this.msgHeader = msgHeader;
+			this.cacheKey = cacheKey;
 		}
 
 		@Override
 		public void run() {
 
-			MessageHandlerCommon.this.messageLock.lock();
+			/* the deadline includes the time waiting for concurrent calls */
+			CallResponse timeoutResponse = new CallResponse(msgHeader.getMessageId(), Status.TIMEOUT);
+			Deadline deadline = startDeadline(MessageHandlerCommon.this.callTimeout, toProviderId(c.getMethodId()),
+					connection, timeoutResponse);
+			Lock[] locks;
+			try {
+				locks = MessageHandlerCommon.this.callLocks.tryLock(toProviderId(c.getMethodId()),
+						toProviderId(c.getParamId()), deadline.getRemaining());
+			} catch (InterruptedException e) {
+				/* interrupted by the deadline or a shutdown */
+				if (!deadline.isExpired())
+					Thread.currentThread().interrupt();
+				locks = null;
+			}
+			if (locks == null) {
+				/* the concurrent calls did not complete before the deadline */
+				if (deadline.complete()) {
+					try {
+						MessageHandlerCommon.this.submit(connection, timeoutResponse);
+						LOG.log(Level.FINEST, "RESP: {0}", timeoutResponse);
+					} catch (IOException e) {
+						LOG.log(Level.SEVERE, "Failed to send CALL_RESP.", e);
+					}
+				}
+				return;
+			}
 
 			try {
+				if (deadline.isExpired())
+					return;
 
 				Status status = null;
 				List<ParamValue> resultList = null;
@@ -411,9 +1857,12 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 					for (int i = 0; i < params.length; i++)
 						params[i] = c.getParamList().get(i).asGeneric();
 
-					Object[] results = MessageHandlerCommon.this.provider.call(
-							(c.getMethodId().isNumeric() ? "#" : "") + c.getMethodId().getValue(),
+					String methodId = toProviderId(c.getMethodId());
+					CompletionStage<Object[]> stage = getAsyncProvider(c.getMethodId(), methodId).callAsync(methodId,
 							(c.getParamId().isNumeric() ? "#" : "") + c.getParamId().getValue(), params);
+					if (stage instanceof Future)
+						deadline.watch((Future<?>) stage);
+					Object[] results = await(stage);
 
 					resultList = new ArrayList<>();
 					for (Object obj : results)
@@ -442,11 +1891,21 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 					log.log(Level.SEVERE, "Cannot call method", ex);
 					status = Status.INVALID_MESSAGE;
 				}
+				if (!deadline.complete())
+					return;
 
 				CallResponse cr = status == Status.SUCCESS || status == Status.APPLICATION_ERROR
 						? new CallResponse(c, resultList, status) : new CallResponse(msgHeader.getMessageId(), status);
+				if (status == Status.SUCCESS && cacheKey != null) {
+					try {
+						MessageHandlerCommon.this.callCache.put(toProviderId(c.getMethodId()), cacheKey,
+								MessageSerializer.serialize(cr));
+					} catch (Exception ex) {
+						log.log(Level.SEVERE, "Cannot cache call response", ex);
+					}
+				}
 				try {
-					MessageHandlerCommon.this.msgServer.submit(ByteBuffer.wrap(MessageSerializer.serialize(cr)));
+					MessageHandlerCommon.this.submit(connection, cr);
 					LOG.log(Level.FINEST, "RESP: {0}", cr);
 
 				} catch (IOException e) {
@@ -454,7 +1913,8 @@ public class MessageHandlerCommon implements MessageHandler, MessageListener {
 				}
 
 			} finally {
-				MessageHandlerCommon.this.messageLock.unlock();
+				MessageHandlerCommon.this.callLocks.unlock(locks);
+				deadline.complete();
 			}
 		}
 	}
@@ -0,0 +1,254 @@
+package havis.opcua.message.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+
+/**
+ * Coalesces the notified values of each subscriber within a time window into
+ * one notification. The first value after an idle period opens the window,
+ * the values collected are sent when the window has elapsed. If a parameter
+ * is notified several times within the window, only the latest value is
+ * sent. The values of a subscriber are sent before the window has elapsed if
+ * their size reaches the byte limit. Subscribers with the same values share
+ * one notification. Notifications are sent without holding the lock, in the
+ * order they were taken out of the window.
+ *
+ * @param <C>
+ *            the subscriber type
+ */
+class NotificationCoalescer<C> {
+
+	private static final Logger LOG = Logger.getLogger(NotificationCoalescer.class.getName());
+
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	/**
+	 * Maximum number of parameters of a notification, the count is encoded
+	 * as short
+	 */
+	static final int MAX_PARAMS = Short.MAX_VALUE;
+
+	/**
+	 * Sends the coalesced values
+	 */
+	interface Sender<C> {
+		void send(Collection<C> recipients, Map<ParamId, ParamValue> params);
+	}
+
+	private final Sender<C> sender;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private volatile long window;
+	private volatile int maxBytes;
+	/* guarded by this */
+	private Map<C, Batch> batches = new HashMap<>();
+	private ScheduledFuture<?> flush;
+	private long superseded;
+	/* notifications to send in order by one thread at a time, guarded by this */
+	private final Queue<Outgoing<C>> outgoing = new ArrayDeque<>();
+	private boolean sending;
+
+	/**
+	 * @param window
+	 *            the window in microseconds, 0 to send the values immediately
+	 * @param maxBytes
+	 *            the size of the values of a subscriber which are sent before
+	 *            the window has elapsed
+	 */
+	NotificationCoalescer(Sender<C> sender, long window, int maxBytes) {
+		this.sender = sender;
+		this.window = Math.max(0, window);
+		this.maxBytes = maxBytes;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Coalesce"));
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		/* an idle thread terminates, so the scheduler needs no shutdown */
+		this.scheduler.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+		this.scheduler.allowCoreThreadTimeOut(true);
+	}
+
+	boolean isEnabled() {
+		return window > 0;
+	}
+
+	/**
+	 * @return the window in microseconds, 0 if the values are sent
+	 *         immediately
+	 */
+	long getWindow() {
+		return window;
+	}
+
+	/**
+	 * Sets the window, values collected so far are sent if the window is
+	 * disabled
+	 */
+	void setWindow(long window) {
+		this.window = Math.max(0, window);
+		if (this.window == 0)
+			flush();
+	}
+
+	int getMaxBytes() {
+		return maxBytes;
+	}
+
+	void setMaxBytes(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the number of values replaced by a later value of the same
+	 *         parameter within the window
+	 */
+	synchronized long getSuperseded() {
+		return superseded;
+	}
+
+	/**
+	 * Adds values to be sent to the recipients at the end of the window
+	 */
+	void add(Collection<C> recipients, Map<ParamId, ParamValue> params) {
+		synchronized (this) {
+			collect(recipients, params);
+		}
+		send();
+	}
+
+	private void collect(Collection<C> recipients, Map<ParamId, ParamValue> params) {
+		for (C recipient : recipients) {
+			Batch batch = batches.get(recipient);
+			if (batch == null)
+				batches.put(recipient, batch = new Batch());
+			for (Map.Entry<ParamId, ParamValue> e : params.entrySet())
+				if (batch.add(e.getKey(), e.getValue()))
+					superseded++;
+
+			if (batch.bytes >= maxBytes || batch.params.size() >= MAX_PARAMS) {
+				batches.remove(recipient);
+				outgoing.add(new Outgoing<>(Collections.singletonList(recipient), batch.params));
+			}
+		}
+
+		if (flush == null && !batches.isEmpty()) {
+			flush = scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, window, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	/**
+	 * Discards the values collected for a subscriber
+	 */
+	synchronized void remove(C subscriber) {
+		batches.remove(subscriber);
+	}
+
+	/**
+	 * Sends the values collected so far
+	 */
+	void flush() {
+		synchronized (this) {
+			take();
+		}
+		send();
+	}
+
+	private void take() {
+		if (flush != null) {
+			flush.cancel(false);
+			flush = null;
+		}
+		if (batches.isEmpty())
+			return;
+
+		Map<C, Batch> pending = batches;
+		batches = new HashMap<>();
+
+		/* subscribers with the same values share one notification */
+		Map<Map<ParamId, ParamValue>, List<C>> recipients = new LinkedHashMap<>();
+		for (Map.Entry<C, Batch> e : pending.entrySet()) {
+			List<C> list = recipients.get(e.getValue().params);
+			if (list == null)
+				recipients.put(e.getValue().params, list = new ArrayList<>());
+			list.add(e.getKey());
+		}
+		for (Map.Entry<Map<ParamId, ParamValue>, List<C>> e : recipients.entrySet())
+			outgoing.add(new Outgoing<>(e.getValue(), e.getKey()));
+	}
+
+	/**
+	 * Sends the notifications taken out of the window unless another thread
+	 * is sending them
+	 */
+	private void send() {
+		while (true) {
+			Outgoing<C> next;
+			synchronized (this) {
+				if (sending || outgoing.isEmpty())
+					return;
+				next = outgoing.poll();
+				sending = true;
+			}
+			try {
+				sender.send(next.recipients, next.params);
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Failed to send coalesced values " + next.params.keySet(), e);
+			} finally {
+				synchronized (this) {
+					sending = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Values taken out of the window to be sent
+	 */
+	private static class Outgoing<C> {
+		final Collection<C> recipients;
+		final Map<ParamId, ParamValue> params;
+
+		Outgoing(Collection<C> recipients, Map<ParamId, ParamValue> params) {
+			this.recipients = recipients;
+			this.params = params;
+		}
+	}
+
+	/**
+	 * Values of a subscriber collected within the window
+	 */
+	private static class Batch {
+		final Map<ParamId, ParamValue> params = new LinkedHashMap<>();
+		int bytes;
+
+		/**
+		 * @return true if the value replaced a former value of the parameter
+		 */
+		boolean add(ParamId paramId, ParamValue value) {
+			ParamValue former = params.put(paramId, value);
+			if (former == null) {
+				bytes += paramId.getByteCount() + value.getByteCount();
+				return false;
+			}
+			bytes += value.getByteCount() - former.getByteCount();
+			return true;
+		}
+	}
+}
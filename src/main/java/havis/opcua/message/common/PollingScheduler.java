@@ -0,0 +1,312 @@
+package havis.opcua.message.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.SubscriptionFilter;
+
+/**
+ * Samples subscribed parameters of data providers which do not notify
+ * changes. Each parameter is read at the shortest sampling interval requested
+ * by its subscribers, parameters with the same interval are read in one tick.
+ * The values changed since the last tick are passed on as one map of
+ * notifications. A subscriber joining a sampled parameter gets the next value
+ * individually if it is unchanged, the other subscribers are not notified
+ * again.
+ *
+ * @param <C>
+ *            the subscriber type
+ */
+class PollingScheduler<C> {
+
+	private static final Logger LOG = Logger.getLogger(PollingScheduler.class.getName());
+
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	/**
+	 * Reads the sampled parameters and receives the changed values
+	 */
+	interface Source<C> {
+		CompletionStage<Object> read(ParamId paramId, String id);
+
+		void changed(Map<String, Object> values);
+
+		/**
+		 * Receives the unchanged value of a parameter for a new subscriber
+		 */
+		void initial(C subscriber, String id, Object value);
+	}
+
+	private final Source<C> source;
+	private final ScheduledThreadPoolExecutor scheduler;
+	/* guarded by this */
+	private final Map<String, Poll> polls = new HashMap<>();
+	private final Map<Long, Group> groups = new HashMap<>();
+
+	PollingScheduler(Source<C> source) {
+		this.source = source;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Poll"));
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		/* an idle thread terminates, so the scheduler needs no shutdown */
+		this.scheduler.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+		this.scheduler.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return the sampling interval of the filter settings of a subscription,
+	 *         0 if not set
+	 */
+	static long getSamplingInterval(List<SubscriptionFilter> settings) {
+		if (settings != null)
+			for (SubscriptionFilter setting : settings)
+				if (setting.getType() == SubscriptionFilter.Type.SAMPLING_INTERVAL)
+					return (long) setting.getValue().doubleValue();
+		return 0;
+	}
+
+	/**
+	 * Adds a subscriber of a sampled parameter
+	 *
+	 * @param id
+	 *            the data provider ID of the parameter
+	 * @param interval
+	 *            the requested sampling interval in milliseconds
+	 */
+	synchronized void add(String id, ParamId paramId, long interval, C subscriber) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+
+		Poll poll = polls.get(id);
+		if (poll == null)
+			polls.put(id, poll = new Poll(id, paramId));
+		if (poll.subscribers.put(subscriber, interval) == null)
+			poll.join(subscriber);
+		schedule(poll);
+	}
+
+	/**
+	 * Removes a subscriber of a sampled parameter
+	 */
+	synchronized void remove(String id, C subscriber) {
+		Poll poll = polls.get(id);
+		if (poll == null || poll.subscribers.remove(subscriber) == null)
+			return;
+		poll.leave(subscriber);
+		if (poll.subscribers.isEmpty())
+			polls.remove(id);
+		schedule(poll);
+	}
+
+	/**
+	 * Removes all subscriptions of a subscriber
+	 */
+	synchronized void removeAll(C subscriber) {
+		for (Poll poll : new ArrayList<>(polls.values()))
+			remove(poll.id, subscriber);
+	}
+
+	/**
+	 * @return the number of sampled parameters
+	 */
+	synchronized int size() {
+		return polls.size();
+	}
+
+	/**
+	 * @return the sampling interval of a parameter, 0 if it is not sampled
+	 */
+	synchronized long getInterval(String id) {
+		Poll poll = polls.get(id);
+		return poll == null ? 0 : poll.group.interval;
+	}
+
+	/**
+	 * Moves a parameter to the group of its current interval
+	 */
+	private void schedule(Poll poll) {
+		long interval = 0;
+		for (long i : poll.subscribers.values())
+			if (interval == 0 || i < interval)
+				interval = i;
+
+		Group group = poll.group;
+		if (group != null) {
+			if (group.interval == interval)
+				return;
+			group.polls.remove(poll);
+			if (group.polls.isEmpty()) {
+				group.future.cancel(false);
+				groups.remove(group.interval);
+			}
+			poll.group = null;
+		}
+
+		if (interval == 0)
+			return;
+		group = groups.get(interval);
+		if (group == null) {
+			groups.put(interval, group = new Group(interval));
+			group.future = scheduler.scheduleAtFixedRate(group, 0, interval, TimeUnit.MILLISECONDS);
+		}
+		group.polls.add(poll);
+		poll.group = group;
+	}
+
+	private void changed(Map<String, Object> values) {
+		if (values.isEmpty())
+			return;
+		try {
+			source.changed(values);
+		} catch (RuntimeException e) {
+			LOG.log(Level.SEVERE, "Failed to pass on sampled values " + values.keySet(), e);
+		}
+	}
+
+	private void initial(List<C> subscribers, String id, Object value) {
+		for (C subscriber : subscribers) {
+			try {
+				source.initial(subscriber, id, value);
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Failed to pass on sampled value " + id + " to " + subscriber, e);
+			}
+		}
+	}
+
+	/**
+	 * Parameters sampled with the same interval
+	 */
+	private class Group implements Runnable {
+		final long interval;
+		final Set<Poll> polls = ConcurrentHashMap.newKeySet();
+		/* guarded by the polling scheduler */
+		ScheduledFuture<?> future;
+
+		Group(long interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		public void run() {
+			final Map<String, Object> values = new ConcurrentHashMap<>();
+			/* the values are passed on when the last read completed */
+			final AtomicInteger pending = new AtomicInteger(1);
+
+			for (final Poll poll : polls) {
+				/* the previous read of the parameter is still pending */
+				if (!poll.start())
+					continue;
+
+				pending.incrementAndGet();
+				CompletionStage<Object> stage;
+				try {
+					stage = source.read(poll.paramId, poll.id);
+				} catch (RuntimeException e) {
+					poll.complete(null, e, null);
+					if (pending.decrementAndGet() == 0)
+						changed(values);
+					continue;
+				}
+				stage.whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(Object value, Throwable error) {
+						List<C> joined = new ArrayList<>();
+						if (poll.complete(value, error, joined))
+							values.put(poll.id, value);
+						else
+							initial(joined, poll.id, value);
+						if (pending.decrementAndGet() == 0)
+							changed(values);
+					}
+				});
+			}
+
+			if (pending.decrementAndGet() == 0)
+				changed(values);
+		}
+	}
+
+	/**
+	 * A sampled parameter
+	 */
+	private class Poll {
+		final String id;
+		final ParamId paramId;
+		/* requested intervals per subscriber, guarded by the polling scheduler */
+		final Map<C, Long> subscribers = new HashMap<>();
+		/* guarded by the polling scheduler */
+		Group group;
+		/* guarded by this */
+		private boolean reading;
+		private boolean initial = true;
+		private Object last;
+		private final List<C> joined = new ArrayList<>();
+
+		Poll(String id, ParamId paramId) {
+			this.id = id;
+			this.paramId = paramId;
+		}
+
+		/**
+		 * Passes on the next value to a new subscriber regardless of a change
+		 */
+		synchronized void join(C subscriber) {
+			/* the first value is passed on to all subscribers */
+			if (!initial)
+				joined.add(subscriber);
+		}
+
+		synchronized void leave(C subscriber) {
+			joined.remove(subscriber);
+		}
+
+		/**
+		 * @return false if a read is still pending
+		 */
+		synchronized boolean start() {
+			if (reading)
+				return false;
+			reading = true;
+			return true;
+		}
+
+		/**
+		 * @param joined
+		 *            receives the new subscribers to pass on an unchanged
+		 *            value to
+		 * @return true if the value is to be passed on to all subscribers
+		 */
+		synchronized boolean complete(Object value, Throwable error, List<C> joined) {
+			reading = false;
+			if (error != null) {
+				LOG.log(Level.FINE, "Failed to sample " + id, error);
+				return false;
+			}
+			if (value == null)
+				return false;
+			if (!initial && Objects.deepEquals(last, value)) {
+				joined.addAll(this.joined);
+				this.joined.clear();
+				return false;
+			}
+			/* the new subscribers get the changed value with all others */
+			this.joined.clear();
+			initial = false;
+			last = value;
+			return true;
+		}
+	}
+}
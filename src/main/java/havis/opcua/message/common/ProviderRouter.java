@@ -0,0 +1,237 @@
+package havis.opcua.message.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import havis.opcua.message.DataProvider;
+import havis.opcua.message.common.model.ParamId;
+
+/**
+ * Routes parameters and methods to data providers by namespace index or by
+ * ID prefix, i.e. the part of the ID before the first dot. The namespace
+ * index is looked up first, ID prefixes are kept in a character trie walked
+ * up to the first dot, so a lookup neither parses nor copies the ID. Each blocking provider is invoked on its own
+ * threads with its own queue, so a slow provider does not delay the requests
+ * for others. Asynchronous providers complete on their own threads.
+ * Parameters without a route are passed to the default data provider of the
+ * message handler.
+ */
+public class ProviderRouter {
+
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	/* copy on write, indexed by namespace index */
+	private volatile Route[] namespaces = new Route[0];
+	private final Map<String, Route> prefixes = new ConcurrentHashMap<>();
+	/* modifications are guarded by this */
+	private final Node root = new Node();
+
+	/**
+	 * Routes the parameters and methods of a namespace to the provider
+	 *
+	 * @param threads
+	 *            the number of threads invoking a blocking provider
+	 * @return the new route
+	 */
+	public synchronized Route addNamespace(int namespaceIndex, DataProvider provider, int threads) {
+		if (namespaceIndex < 0 || namespaceIndex > 0xFFFF)
+			throw new IllegalArgumentException("Invalid namespace index: " + namespaceIndex);
+
+		Route route = new Route("ns" + namespaceIndex, provider, threads);
+		Route[] routes = namespaces;
+		if (namespaceIndex >= routes.length) {
+			Route[] newRoutes = new Route[namespaceIndex + 1];
+			System.arraycopy(routes, 0, newRoutes, 0, routes.length);
+			routes = newRoutes;
+		} else {
+			routes = routes.clone();
+		}
+		routes[namespaceIndex] = route;
+		namespaces = routes;
+		return route;
+	}
+
+	/**
+	 * Routes the parameters and methods whose ID starts with the prefix and a
+	 * dot, or equals the prefix, to the provider
+	 *
+	 * @param threads
+	 *            the number of threads invoking a blocking provider
+	 * @return the new route
+	 */
+	public synchronized Route addPrefix(String prefix, DataProvider provider, int threads) {
+		if (prefix == null || prefix.isEmpty() || prefix.indexOf('.') >= 0)
+			throw new IllegalArgumentException("Invalid prefix: " + prefix);
+
+		Route route = new Route(prefix, provider, threads);
+		Node node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			Node child = node.children.get(prefix.charAt(i));
+			if (child == null)
+				node.children.put(prefix.charAt(i), child = new Node());
+			node = child;
+		}
+		node.route = route;
+		prefixes.put(prefix, route);
+		return route;
+	}
+
+	/**
+	 * @param paramId
+	 *            the parameter or method
+	 * @param providerId
+	 *            the ID of the parameter or method as passed to the provider
+	 * @return the route of the parameter or method, null if the default data
+	 *         provider applies
+	 */
+	public Route route(ParamId paramId, String providerId) {
+		Route[] routes = namespaces;
+		int namespaceIndex = paramId.getNamespaceIndex();
+		if (namespaceIndex >= 0 && namespaceIndex < routes.length && routes[namespaceIndex] != null)
+			return routes[namespaceIndex];
+		return route(providerId);
+	}
+
+	/**
+	 * @param providerId
+	 *            the ID of the parameter or method as passed to the provider
+	 * @return the route of the ID prefix, null if the default data provider
+	 *         applies
+	 */
+	public Route route(String providerId) {
+		if (prefixes.isEmpty())
+			return null;
+
+		Node node = root;
+		for (int i = 0; i < providerId.length(); i++) {
+			char c = providerId.charAt(i);
+			if (c == '.')
+				break;
+			node = node.children.get(c);
+			if (node == null)
+				return null;
+		}
+		return node.route;
+	}
+
+	/**
+	 * @return all routes
+	 */
+	public synchronized Collection<Route> getRoutes() {
+		List<Route> routes = new ArrayList<>();
+		for (Route route : namespaces)
+			if (route != null)
+				routes.add(route);
+		routes.addAll(prefixes.values());
+		return routes;
+	}
+
+	private static class Node {
+		final ConcurrentMap<Character, Node> children = new ConcurrentHashMap<>(4);
+		volatile Route route;
+	}
+
+	/**
+	 * A data provider with its own threads
+	 */
+	public static class Route {
+		private final String name;
+		private final DataProvider provider;
+		private final AsyncDataProvider asyncProvider;
+		private final ThreadPoolExecutor executor;
+		private final KeyedExecutor keyedExecutor;
+		private volatile int pollInterval;
+
+		Route(String name, DataProvider provider, int threads) {
+			if (provider == null)
+				throw new IllegalArgumentException("No data provider for route " + name);
+
+			this.name = name;
+			this.provider = provider;
+			if (provider instanceof AsyncDataProvider) {
+				this.asyncProvider = (AsyncDataProvider) provider;
+				this.executor = null;
+				this.keyedExecutor = null;
+			} else {
+				if (threads < 1)
+					throw new IllegalArgumentException("Invalid number of threads for route " + name + ": " + threads);
+				this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+						new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Provider-" + name));
+				/* idle threads terminate, so the pool needs no shutdown */
+				this.executor.allowCoreThreadTimeOut(true);
+				this.keyedExecutor = new KeyedExecutor(this.executor);
+				this.asyncProvider = new AsyncDataProviderAdapter(provider, this.keyedExecutor);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the provider for subscriptions
+		 */
+		public DataProvider getProvider() {
+			return provider;
+		}
+
+		/**
+		 * @return the provider for reads, writes and calls
+		 */
+		public AsyncDataProvider getAsyncProvider() {
+			return asyncProvider;
+		}
+
+		/**
+		 * @return the number of parameters and methods with pending
+		 *         invocations of a blocking provider
+		 */
+		public int getPendingCount() {
+			return keyedExecutor == null ? 0 : keyedExecutor.getActiveKeyCount();
+		}
+
+		/**
+		 * @return the number of invocations of a blocking provider being
+		 *         executed
+		 */
+		public int getActiveCount() {
+			return executor == null ? 0 : executor.getActiveCount();
+		}
+
+		/**
+		 * @return the default sampling interval of subscribed parameters in
+		 *         milliseconds, 0 if the provider notifies changes
+		 */
+		public int getPollInterval() {
+			return pollInterval;
+		}
+
+		/**
+		 * Marks the provider as not notifying changes. Subscribed parameters
+		 * are read at the sampling interval requested by the subscription or
+		 * at the default interval, only changed values are notified. Wildcard
+		 * subscriptions of the route are rejected.
+		 *
+		 * @param pollInterval
+		 *            the default sampling interval in milliseconds, 0 if the
+		 *            provider notifies changes
+		 */
+		public void setPollInterval(int pollInterval) {
+			if (pollInterval < 0)
+				throw new IllegalArgumentException("Invalid poll interval for route " + name + ": " + pollInterval);
+			this.pollInterval = pollInterval;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("{ name = %s, pending = %d, active = %d }", name, getPendingCount(), getActiveCount());
+		}
+	}
+}
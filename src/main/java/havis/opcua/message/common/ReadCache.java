@@ -0,0 +1,199 @@
+package havis.opcua.message.common;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.server.BufferPool;
+
+/**
+ * Cache of encoded read responses for parameters with a time to live. A hit
+ * copies the encoded response and patches the message ID, the data provider
+ * is not invoked. Entries are invalidated on writes and notifications of the
+ * parameter, the least recently used entries are evicted if the size limit is
+ * reached.
+ * <p>
+ * Each entry carries a version to detect invalidations while a read is
+ * pending: the version is taken before the data provider is invoked and the
+ * result is only stored if the version did not change meanwhile. Invalidated
+ * entries are kept without a response for that purpose.
+ */
+class ReadCache {
+
+	/**
+	 * Offset of the message ID in an encoded message
+	 */
+	static final int MESSAGE_ID_OFFSET = 6;
+
+	private final Map<String, Integer> ttls = new ConcurrentHashMap<>();
+	/* guarded by itself */
+	private final LinkedHashMap<String, CacheEntry> entries;
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	/* guarded by entries */
+	private long lastEviction;
+	private volatile int maxSize;
+
+	ReadCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() <= ReadCache.this.maxSize)
+					return false;
+				/* reads pending for the evicted entry must not store their result */
+				lastEviction = clock.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return true if any parameter is cached
+	 */
+	boolean isEnabled() {
+		return !ttls.isEmpty();
+	}
+
+	/**
+	 * @return the time to live of cached responses of the parameter in
+	 *         milliseconds, 0 if the parameter is not cached
+	 */
+	int getTtl(String id) {
+		if (ttls.isEmpty())
+			return 0;
+		Integer ttl = ttls.get(id);
+		return ttl == null ? 0 : ttl;
+	}
+
+	/**
+	 * Sets the time to live of cached responses of the parameter, 0 disables
+	 * caching of the parameter
+	 */
+	void setTtl(String id, int ttl) {
+		if (ttl > 0)
+			ttls.put(id, ttl);
+		else {
+			ttls.remove(id);
+			synchronized (entries) {
+				entries.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * @return a pooled buffer with the cached response for the message ID,
+	 *         null if there is no valid cached response
+	 */
+	ByteBuffer get(String id, ParamId paramId, int messageId, BufferPool bufferPool) {
+		byte[] response = null;
+		synchronized (entries) {
+			CacheEntry entry = entries.get(id);
+			/* parameters of different namespaces may map to the same ID */
+			if (entry != null && entry.response != null && entry.paramId.equals(paramId)
+					&& entry.expires - System.nanoTime() > 0)
+				response = entry.response;
+		}
+
+		if (response == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+
+		ByteBuffer bb = bufferPool.acquire(response.length);
+		bb.put(response);
+		bb.putInt(MESSAGE_ID_OFFSET, messageId);
+		bb.flip();
+		return bb;
+	}
+
+	/**
+	 * @return the version to pass to {@link #put(String, long, ParamId, byte[])}
+	 *         after the data provider has been invoked
+	 */
+	long version(String id) {
+		synchronized (entries) {
+			CacheEntry entry = entries.get(id);
+			return entry == null ? lastEviction : entry.version;
+		}
+	}
+
+	/**
+	 * Stores the encoded response of a read unless the parameter has been
+	 * invalidated since the version has been taken
+	 */
+	void put(String id, long version, ParamId paramId, byte[] response) {
+		int ttl = getTtl(id);
+		if (ttl <= 0 || response.length < MessageHeader.BYTE_COUNT)
+			return;
+
+		long expires = System.nanoTime() + ttl * 1000000L;
+		synchronized (entries) {
+			CacheEntry entry = entries.get(id);
+			if ((entry == null ? lastEviction : entry.version) != version)
+				return;
+			entries.put(id, new CacheEntry(clock.incrementAndGet(), paramId, response, expires));
+		}
+	}
+
+	/**
+	 * Invalidates the cached response of the parameter
+	 */
+	void invalidate(String id) {
+		if (getTtl(id) <= 0)
+			return;
+
+		synchronized (entries) {
+			entries.put(id, new CacheEntry(clock.incrementAndGet(), null, null, 0));
+		}
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{ size = %d, hits = %d, misses = %d }", getSize(), getHits(), getMisses());
+	}
+
+	private static class CacheEntry {
+		final long version;
+		final ParamId paramId;
+		final byte[] response;
+		final long expires;
+
+		CacheEntry(long version, ParamId paramId, byte[] response, long expires) {
+			this.version = version;
+			this.paramId = paramId;
+			this.response = response;
+			this.expires = expires;
+		}
+	}
+}
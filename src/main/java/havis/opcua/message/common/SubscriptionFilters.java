@@ -0,0 +1,397 @@
+package havis.opcua.message.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.SubscriptionFilter;
+
+/**
+ * Applies the filter settings of subscriptions to notified values. A filter
+ * is set per subscriber and subscription ID, the state of a filter, i.e. the
+ * last sent value, is kept per notified parameter in primitive fields.
+ * <p>
+ * A value is dropped if it is within the deadband of the last sent numeric
+ * value. A value arriving before the minimum interval since the last sent
+ * value has elapsed is kept and published when the interval has elapsed,
+ * unless a later value replaces it.
+ * <p>
+ * An aggregating filter collects the numeric values of a window in primitive
+ * accumulators and publishes a struct with the minimum, maximum, average and
+ * count at the end of the window. Windows without values publish nothing.
+ *
+ * @param <C>
+ *            the subscriber type
+ */
+class SubscriptionFilters<C> {
+
+	private static final int KEEP_ALIVE_MS = 60000;
+
+	/**
+	 * Struct ID of aggregates
+	 */
+	static final String AGGREGATE_ID = "Aggregate";
+
+	/**
+	 * Sends a value kept back by a filter
+	 */
+	interface Publisher<C> {
+		void publish(C subscriber, String key, Object value);
+	}
+
+	private final Publisher<C> publisher;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final ConcurrentMap<C, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+	SubscriptionFilters(Publisher<C> publisher) {
+		this.publisher = publisher;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Filter"));
+		this.scheduler.setRemoveOnCancelPolicy(true);
+		/* an idle thread terminates, so the scheduler needs no shutdown */
+		this.scheduler.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+		this.scheduler.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Creates a filter from the filter settings of a subscription, the
+	 * sampling interval is no filter and ignored
+	 *
+	 * @return the filter, null if there are no settings
+	 * @throws IllegalArgumentException
+	 *             if a setting is not a non-negative number or given twice
+	 *             or if aggregation is combined with other settings
+	 */
+	static Filter create(List<SubscriptionFilter> settings) throws IllegalArgumentException {
+		if (settings == null || settings.isEmpty())
+			return null;
+
+		Filter filter = new Filter();
+		int count = 0;
+		for (SubscriptionFilter setting : settings) {
+			ParamValue value = setting.getValue();
+			if (value == null || !value.isNumeric() || !(value.doubleValue() >= 0))
+				throw new IllegalArgumentException("Invalid value of filter " + setting);
+
+			if (setting.getType() == SubscriptionFilter.Type.SAMPLING_INTERVAL)
+				continue;
+			count++;
+
+			switch (setting.getType()) {
+			case ABSOLUTE_DEADBAND:
+				if (filter.absoluteDeadband >= 0)
+					throw new IllegalArgumentException("Duplicate filter " + setting);
+				filter.absoluteDeadband = value.doubleValue();
+				break;
+			case PERCENT_DEADBAND:
+				if (filter.percentDeadband >= 0)
+					throw new IllegalArgumentException("Duplicate filter " + setting);
+				filter.percentDeadband = value.doubleValue();
+				break;
+			case MIN_INTERVAL:
+				if (filter.minInterval > 0)
+					throw new IllegalArgumentException("Duplicate filter " + setting);
+				filter.minInterval = TimeUnit.MILLISECONDS.toNanos((long) value.doubleValue());
+				break;
+			case AGGREGATE:
+				if (filter.window > 0 || (long) value.doubleValue() <= 0)
+					throw new IllegalArgumentException("Invalid filter " + setting);
+				filter.window = (long) value.doubleValue();
+				break;
+			default:
+				break;
+			}
+		}
+		if (count == 0)
+			return null;
+		if (filter.window > 0 && count > 1)
+			throw new IllegalArgumentException("Aggregation cannot be combined with other filters: " + settings);
+		return filter;
+	}
+
+	/**
+	 * Sets the filter of a subscription, replacing the former filter and its
+	 * state
+	 *
+	 * @param id
+	 *            the subscription ID, may be a wildcard
+	 * @param filter
+	 *            the filter, null to remove the filter
+	 */
+	void set(C subscriber, String id, Filter filter) {
+		if (filter == null) {
+			remove(subscriber, id);
+			return;
+		}
+
+		Subscriber s = subscribers.computeIfAbsent(subscriber, new Function<C, Subscriber>() {
+			@Override
+			public Subscriber apply(C key) {
+				return new Subscriber();
+			}
+		});
+		s.filters.put(id, filter);
+		if (SubscriptionRegistry.isWildcard(id)) {
+			s.wildcards = true;
+			/* the wildcard may match parameters of other subscriptions */
+			s.reset(null);
+		} else
+			s.reset(id);
+	}
+
+	/**
+	 * Removes the filter of a subscription
+	 */
+	void remove(C subscriber, String id) {
+		Subscriber s = subscribers.get(subscriber);
+		if (s != null && s.filters.remove(id) != null)
+			s.reset(id);
+	}
+
+	/**
+	 * Removes all filters of a subscriber
+	 */
+	void removeAll(C subscriber) {
+		Subscriber s = subscribers.remove(subscriber);
+		if (s != null)
+			s.reset(null);
+	}
+
+	boolean isEmpty() {
+		return subscribers.isEmpty();
+	}
+
+	/**
+	 * Applies the filter of the subscriber to a notified value
+	 *
+	 * @param id
+	 *            the data provider ID of the parameter
+	 * @param key
+	 *            the notification key of the parameter
+	 * @return true if the value is to be sent now
+	 */
+	boolean accept(C subscriber, String id, String key, Object value) {
+		Subscriber s = subscribers.get(subscriber);
+		if (s == null)
+			return true;
+
+		State state = s.states.get(id);
+		if (state == null) {
+			String subscriptionId = id;
+			Filter filter = s.filters.get(id);
+			if (filter == null && s.wildcards) {
+				/* the longest matching wildcard */
+				for (Map.Entry<String, Filter> e : s.filters.entrySet()) {
+					String wildcard = e.getKey();
+					int length = wildcard.length() - SubscriptionRegistry.WILDCARD.length();
+					if (SubscriptionRegistry.isWildcard(wildcard) && id.regionMatches(0, wildcard, 0, length)
+							&& (filter == null || wildcard.length() > subscriptionId.length())) {
+						subscriptionId = wildcard;
+						filter = e.getValue();
+					}
+				}
+			}
+			if (filter == null)
+				return true;
+
+			state = new State(subscriber, subscriptionId, filter);
+			State current = s.states.putIfAbsent(id, state);
+			if (current != null)
+				state = current;
+		}
+		return state.accept(key, value, System.nanoTime());
+	}
+
+	/**
+	 * Filter settings of a subscription, negative values are not set
+	 */
+	static class Filter {
+		double absoluteDeadband = -1;
+		double percentDeadband = -1;
+		long minInterval;
+		/* aggregation window in milliseconds */
+		long window;
+
+		@Override
+		public String toString() {
+			return "{ absoluteDeadband = " + absoluteDeadband + ", percentDeadband = " + percentDeadband
+					+ ", minInterval = " + TimeUnit.NANOSECONDS.toMillis(minInterval) + ", window = " + window + " }";
+		}
+	}
+
+	/**
+	 * Filters and states of a subscriber
+	 */
+	private class Subscriber {
+		final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<>();
+		final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+		volatile boolean wildcards;
+
+		/**
+		 * Discards the states of a subscription or all states
+		 */
+		void reset(String subscriptionId) {
+			for (Iterator<State> it = states.values().iterator(); it.hasNext();) {
+				State state = it.next();
+				if (subscriptionId == null || subscriptionId.equals(state.subscriptionId)) {
+					it.remove();
+					state.cancel();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filter state of a notified parameter
+	 */
+	private class State implements Runnable {
+		final C subscriber;
+		final String subscriptionId;
+		final Filter filter;
+		/* guarded by this */
+		private boolean sent;
+		private boolean numeric;
+		private double last;
+		private long lastSent;
+		private String pendingKey;
+		private Object pending;
+		private ScheduledFuture<?> flush;
+		/* aggregate of the current window */
+		private int count;
+		private double min;
+		private double max;
+		private double sum;
+		private ScheduledFuture<?> tick;
+
+		State(C subscriber, String subscriptionId, Filter filter) {
+			this.subscriber = subscriber;
+			this.subscriptionId = subscriptionId;
+			this.filter = filter;
+		}
+
+		synchronized boolean accept(String key, Object value, long now) {
+			if (filter.window > 0) {
+				/* other values cannot be aggregated */
+				if (!(value instanceof Number))
+					return true;
+				aggregate(key, ((Number) value).doubleValue());
+				return false;
+			}
+
+			if (sent && numeric && value instanceof Number) {
+				double delta = Math.abs(((Number) value).doubleValue() - last);
+				if (delta <= filter.absoluteDeadband || delta <= Math.abs(last) * filter.percentDeadband / 100) {
+					/* the latest value is close enough to the last sent one */
+					pending = null;
+					return false;
+				}
+			}
+
+			if (sent && filter.minInterval > 0 && now - lastSent < filter.minInterval) {
+				pendingKey = key;
+				pending = value;
+				if (flush == null)
+					flush = scheduler.schedule(this, lastSent + filter.minInterval - now, TimeUnit.NANOSECONDS);
+				return false;
+			}
+
+			sent(value, now);
+			return true;
+		}
+
+		private void sent(Object value, long now) {
+			sent = true;
+			lastSent = now;
+			numeric = value instanceof Number;
+			if (numeric)
+				last = ((Number) value).doubleValue();
+			pending = null;
+		}
+
+		/**
+		 * Publishes the value kept back until the minimum interval elapsed
+		 */
+		@Override
+		public void run() {
+			String key;
+			Object value;
+			synchronized (this) {
+				flush = null;
+				if (pending == null)
+					return;
+				key = pendingKey;
+				value = pending;
+				sent(value, System.nanoTime());
+			}
+			publisher.publish(subscriber, key, value);
+		}
+
+		private void aggregate(String key, double value) {
+			if (count == 0) {
+				min = value;
+				max = value;
+				sum = 0;
+			} else {
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			sum += value;
+			count++;
+			pendingKey = key;
+
+			if (tick == null)
+				tick = scheduler.scheduleAtFixedRate(new Runnable() {
+					@Override
+					public void run() {
+						publishAggregate();
+					}
+				}, filter.window, filter.window, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Publishes the aggregate at the end of a window
+		 */
+		private void publishAggregate() {
+			String key;
+			Map<String, Object> aggregate = new LinkedHashMap<>();
+			synchronized (this) {
+				if (count == 0) {
+					/* stop ticking until the next value arrives */
+					if (tick != null) {
+						tick.cancel(false);
+						tick = null;
+					}
+					return;
+				}
+				key = pendingKey;
+				aggregate.put("@id", AGGREGATE_ID);
+				aggregate.put("min", min);
+				aggregate.put("max", max);
+				aggregate.put("avg", sum / count);
+				aggregate.put("count", count);
+				count = 0;
+			}
+			publisher.publish(subscriber, key, aggregate);
+		}
+
+		synchronized void cancel() {
+			pending = null;
+			if (flush != null) {
+				flush.cancel(false);
+				flush = null;
+			}
+			count = 0;
+			if (tick != null) {
+				tick.cancel(false);
+				tick = null;
+			}
+		}
+	}
+}
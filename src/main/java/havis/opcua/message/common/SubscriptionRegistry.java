@@ -0,0 +1,236 @@
+package havis.opcua.message.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+import havis.opcua.message.common.model.ParamId;
+
+/**
+ * Registry of the subscribers of parameters. Parameters are keyed by their
+ * data provider ID, so notification keys of the data provider in any of the
+ * supported formats match the subscriptions of the clients regardless of the
+ * namespace.
+ * <p>
+ * An ID ending with {@link #WILDCARD} subscribes all parameters starting with
+ * the preceding prefix, e.g. "rfr310.*" or "*" for all parameters. Prefixes
+ * are kept in a character trie, the lookup of a notification key walks the
+ * trie along the key, so its cost depends on the key length only.
+ *
+ * @param <C>
+ *            the subscriber type
+ */
+class SubscriptionRegistry<C> {
+
+	static final String WILDCARD = "*";
+
+	private final ConcurrentMap<String, Set<C>> subscribers = new ConcurrentHashMap<>();
+	/* subscribers per prefix, modified along with the trie */
+	private final ConcurrentMap<String, Set<C>> prefixes = new ConcurrentHashMap<>();
+	/* modifications are guarded by the root node */
+	private final Node<C> root = new Node<>();
+
+	/**
+	 * @return true if the ID subscribes all parameters with a prefix
+	 */
+	static boolean isWildcard(String id) {
+		return id.endsWith(WILDCARD);
+	}
+
+	/**
+	 * Adds a subscriber of a parameter or, for a wildcard ID, of all
+	 * parameters with the prefix
+	 *
+	 * @return true if the ID had no subscriber before
+	 */
+	boolean add(String id, final C subscriber) {
+		if (isWildcard(id))
+			return addPrefix(id.substring(0, id.length() - WILDCARD.length()), subscriber);
+
+		final boolean[] first = new boolean[1];
+		subscribers.compute(id, new BiFunction<String, Set<C>, Set<C>>() {
+			@Override
+			public Set<C> apply(String key, Set<C> set) {
+				if (set == null) {
+					set = ConcurrentHashMap.newKeySet();
+					first[0] = true;
+				}
+				set.add(subscriber);
+				return set;
+			}
+		});
+		return first[0];
+	}
+
+	/**
+	 * Removes a subscriber of a parameter or, for a wildcard ID, of all
+	 * parameters with the prefix
+	 *
+	 * @return true if the ID has no subscriber left
+	 */
+	boolean remove(String id, final C subscriber) {
+		if (isWildcard(id))
+			return removePrefix(id.substring(0, id.length() - WILDCARD.length()), subscriber);
+
+		final boolean[] last = new boolean[] { true };
+		subscribers.computeIfPresent(id, new BiFunction<String, Set<C>, Set<C>>() {
+			@Override
+			public Set<C> apply(String key, Set<C> set) {
+				set.remove(subscriber);
+				if (set.isEmpty())
+					return null;
+				last[0] = false;
+				return set;
+			}
+		});
+		return last[0];
+	}
+
+	private boolean addPrefix(String prefix, C subscriber) {
+		synchronized (root) {
+			Set<C> set = prefixes.get(prefix);
+			boolean first = set == null;
+			if (first) {
+				set = ConcurrentHashMap.newKeySet();
+				prefixes.put(prefix, set);
+
+				Node<C> node = root;
+				for (int i = 0; i < prefix.length(); i++) {
+					Node<C> child = node.children.get(prefix.charAt(i));
+					if (child == null)
+						node.children.put(prefix.charAt(i), child = new Node<>());
+					node = child;
+				}
+				node.subscribers = set;
+			}
+			set.add(subscriber);
+			return first;
+		}
+	}
+
+	private boolean removePrefix(String prefix, C subscriber) {
+		synchronized (root) {
+			Set<C> set = prefixes.get(prefix);
+			if (set == null)
+				return true;
+			set.remove(subscriber);
+			if (!set.isEmpty())
+				return false;
+			prefixes.remove(prefix);
+
+			/* remove the subscribers and the nodes which are no longer needed */
+			List<Node<C>> path = new ArrayList<>(prefix.length() + 1);
+			Node<C> node = root;
+			path.add(node);
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.children.get(prefix.charAt(i));
+				path.add(node);
+			}
+			node.subscribers = null;
+			for (int i = prefix.length(); i > 0; i--) {
+				node = path.get(i);
+				if (node.subscribers != null || !node.children.isEmpty())
+					break;
+				path.get(i - 1).children.remove(prefix.charAt(i - 1));
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Removes all subscriptions of a subscriber
+	 *
+	 * @return the IDs which have no subscriber left
+	 */
+	List<String> removeAll(C subscriber) {
+		List<String> ids = new ArrayList<>();
+		for (Map.Entry<String, Set<C>> e : subscribers.entrySet())
+			if (e.getValue().contains(subscriber) && remove(e.getKey(), subscriber))
+				ids.add(e.getKey());
+		for (Map.Entry<String, Set<C>> e : prefixes.entrySet())
+			if (e.getValue().contains(subscriber) && removePrefix(e.getKey(), subscriber))
+				ids.add(e.getKey() + WILDCARD);
+		return ids;
+	}
+
+	/**
+	 * @return the subscribers of a parameter including the subscribers of
+	 *         matching prefixes, an empty set if there are none
+	 */
+	Set<C> get(String id) {
+		Set<C> set = subscribers.get(id);
+		if (prefixes.isEmpty())
+			return set == null ? Collections.<C> emptySet() : set;
+
+		Set<C> result = set;
+		boolean copied = false;
+		Node<C> node = root;
+		for (int i = 0; node != null; i++) {
+			Set<C> matched = node.subscribers;
+			if (matched != null && !matched.isEmpty()) {
+				if (result == null)
+					result = matched;
+				else {
+					if (!copied) {
+						result = new HashSet<>(result);
+						copied = true;
+					}
+					result.addAll(matched);
+				}
+			}
+			if (i == id.length())
+				break;
+			node = node.children.get(id.charAt(i));
+		}
+		return result == null ? Collections.<C> emptySet() : result;
+	}
+
+	/**
+	 * @return true if the ID, a parameter or a wildcard, has subscribers
+	 */
+	boolean isSubscribed(String id) {
+		if (isWildcard(id))
+			return prefixes.containsKey(id.substring(0, id.length() - WILDCARD.length()));
+		return subscribers.containsKey(id);
+	}
+
+	boolean isEmpty() {
+		return subscribers.isEmpty() && prefixes.isEmpty();
+	}
+
+	/**
+	 * @return the number of subscribed parameters and wildcards
+	 */
+	int size() {
+		return subscribers.size() + prefixes.size();
+	}
+
+	/**
+	 * Converts a notification key of the data provider to the data provider
+	 * ID of the parameter. Besides the data provider ID format the key may be
+	 * given as node ID, i.e. "ns=1;s=name" or "ns=1;i=42".
+	 */
+	static String toId(String key) {
+		/* fast path for string IDs in the data provider format */
+		if (key.indexOf('=') < 0 && !key.startsWith("#"))
+			return key;
+		ParamId paramId = new ParamId(key, true);
+		return (paramId.isNumeric() ? "#" : "") + paramId.getValue();
+	}
+
+	private static class Node<C> {
+		final ConcurrentMap<Character, Node<C>> children = new ConcurrentHashMap<>(4);
+		volatile Set<C> subscribers;
+	}
+
+	@Override
+	public String toString() {
+		return "{ subscribers = " + subscribers + ", prefixes = " + prefixes + " }";
+	}
+}
@@ -49,6 +49,7 @@ public class MessageClient {
 	private SocketChannel client;
 	private Logger log = Logger.getLogger(MessageClient.class.getName());
 	private Queue<Message> msgQueue = new ConcurrentLinkedQueue<>();
+	private final MessageIdSeed idSeed = new MessageIdSeed();
 	
 	private static final int OPCUA_PORT = 4810;
 	private static final int RECV_INTERVAL = 100;
@@ -71,7 +72,7 @@ public class MessageClient {
 		@Override
 		public Object[] call(String methodId, String paramId, Object[] params) throws ParameterException {			
 			
-			int msgId = MessageIdSeed.next();
+			int msgId = idSeed.acquire();
 			
 			try {
 				Call msg = new Call(new ParamId(methodId, true), new ParamId(-1, paramId), params, msgId);
@@ -102,13 +103,15 @@ public class MessageClient {
 				throw new InvalidParameterException("Received response of unexpected type.", e);
 			} catch (Exception ex) {
 				throw new InvalidParameterException(ex);
+			} finally {
+				idSeed.release(msgId);
 			}
 		}
 		
 		@Override
 		public Object read(String id) throws ParameterException {
 			
-			int msgId = MessageIdSeed.next();
+			int msgId = idSeed.acquire();
 			
 			try {
 				Read msg = new Read(new ParamId(id, true), msgId);
@@ -127,13 +130,15 @@ public class MessageClient {
 				throw new InvalidParameterException("Received response of unexpected type.", e);
 			} catch (Exception ex) {
 				throw new InvalidParameterException(ex);
+			} finally {
+				idSeed.release(msgId);
 			}
 		}
 		
 		@Override
 		public void write(String id, Object value) throws ParameterException {
 			
-			int msgId = MessageIdSeed.next();
+			int msgId = idSeed.acquire();
 			
 			try {
 				Write msg = new Write(new ParamId(id, true), new ParamValue(value), msgId);
@@ -152,12 +157,14 @@ public class MessageClient {
 				throw new InvalidParameterException("Received response of unexpected type.", e);
 			} catch (Exception ex) {
 				throw new InvalidParameterException(ex);
+			} finally {
+				idSeed.release(msgId);
 			}				
 		}
 
 		@Override
 		public void subscribe(String id) throws ParameterException {
-			int msgId = MessageIdSeed.next();
+			int msgId = idSeed.acquire();
 			
 			try {
 				Subscribe msg = new Subscribe(new ParamId(id, true), msgId);
@@ -176,12 +183,14 @@ public class MessageClient {
 				throw new InvalidParameterException("Received response of unexpected type.", e);
 			} catch (Exception ex) {
 				throw new InvalidParameterException(ex);
+			} finally {
+				idSeed.release(msgId);
 			}	
 		}
 		
 		@Override
 		public void unsubscribe(String id) throws ParameterException {
-			int msgId = MessageIdSeed.next();
+			int msgId = idSeed.acquire();
 			
 			try {
 				Unsubscribe msg = new Unsubscribe(new ParamId(id, true), msgId);
@@ -200,6 +209,8 @@ public class MessageClient {
 				throw new InvalidParameterException("Received response of unexpected type.", e);
 			} catch (Exception ex) {
 				throw new InvalidParameterException(ex);
+			} finally {
+				idSeed.release(msgId);
 			}	
 		}
 	}	
@@ -215,7 +226,8 @@ public class MessageClient {
 		
 		if (msg instanceof WriteResponse) {
 			WriteResponse resp = (WriteResponse)msg;
-			if (resp.getStatus() != Status.SUCCESS) 
+			/* a superseded write has been replaced by a later write of the parameter */
+			if (resp.getStatus() != Status.SUCCESS && resp.getStatus() != Status.SUPERSEDED) 
 				throw new InvalidParameterException("" + resp.getStatus());
 		}
 		
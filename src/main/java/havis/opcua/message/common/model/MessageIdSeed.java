@@ -1,9 +1,76 @@
 package havis.opcua.message.common.model;
 
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Lock-free generator of message IDs. IDs are taken from a monotonic counter
+ * starting at an optional random epoch, so IDs of different generators are
+ * unlikely to overlap and IDs of one generator only repeat after 2^32 calls.
+ * Requests awaiting a response should use {@link #acquire()} and
+ * {@link #release(int)}, which guarantee that no ID is handed out twice while
+ * it is in flight.
+ */
 public class MessageIdSeed {
-	public static synchronized int next() {
-		return UUID.randomUUID().hashCode();
+
+	private static final MessageIdSeed SEED = new MessageIdSeed();
+
+	private final AtomicInteger counter;
+	private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates a generator starting at a random epoch
+	 */
+	public MessageIdSeed() {
+		this(ThreadLocalRandom.current().nextInt());
+	}
+
+	/**
+	 * Creates a generator starting at the specified epoch, the first ID is
+	 * epoch + 1
+	 */
+	public MessageIdSeed(int epoch) {
+		this.counter = new AtomicInteger(epoch);
+	}
+
+	/**
+	 * @return the next ID of the shared generator, used for notifications
+	 *         and events
+	 */
+	public static int next() {
+		return SEED.nextId();
+	}
+
+	/**
+	 * @return the next ID of this generator
+	 */
+	public int nextId() {
+		return counter.incrementAndGet();
+	}
+
+	/**
+	 * Allocates an ID which is not used by any other request in flight. The
+	 * ID must be released with {@link #release(int)} once the response has
+	 * been received or the request has failed.
+	 */
+	public int acquire() {
+		while (true) {
+			int id = counter.incrementAndGet();
+			if (inFlight.add(id))
+				return id;
+		}
+	}
+
+	public void release(int id) {
+		inFlight.remove(id);
+	}
+
+	/**
+	 * @return the number of acquired IDs which have not been released yet
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
 	}
 }
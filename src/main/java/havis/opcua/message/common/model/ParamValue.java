@@ -2,12 +2,17 @@ package havis.opcua.message.common.model;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 
 public class ParamValue implements MessagePart {
 	private Object value;
 
 	private boolean omitStringTypeBytes;
+
+	/* cached byte count of values with an immutable size, -1 if unknown */
+	private int byteCount = -1;
 	
 	public ParamValue(Boolean value) {
 		this.value = value;
@@ -90,6 +95,23 @@ public class ParamValue implements MessagePart {
 	public Class<?> getValueType() {
 		return value.getClass();
 	}
+
+	/**
+	 * @return true if the value is a scalar number, i.e. a byte, short, int,
+	 *         long, float or double
+	 */
+	public boolean isNumeric() {
+		return value instanceof Number;
+	}
+
+	/**
+	 * @return the numeric value as double without boxing
+	 * @throws ClassCastException
+	 *             if the value is not numeric
+	 */
+	public double doubleValue() {
+		return ((Number) value).doubleValue();
+	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public ParamValue(Object value) throws IllegalArgumentException {
@@ -300,6 +322,18 @@ public class ParamValue implements MessagePart {
 
 	@Override
 	public int getByteCount() {
+		if (byteCount >= 0)
+			return byteCount;
+
+		int count = computeByteCount();
+
+		/* the size of structs and string arrays may change with their content */
+		if (!(value instanceof Struct || value instanceof Struct[] || value instanceof String[]))
+			byteCount = count;
+		return count;
+	}
+
+	private int computeByteCount() {
 		/*
 		 * Scalar types: paramType(2 bytes) + paramContent(variable)
 		 */
@@ -517,6 +551,30 @@ public class ParamValue implements MessagePart {
 			s.serialize(bb);			
 	}
 
+	/**
+	 * Values are equal if they have the same type and content, arrays and
+	 * structs are compared by their elements and fields. The string format
+	 * for serialization is not compared.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ParamValue other = (ParamValue) obj;
+		return Objects.deepEquals(value, other.value);
+	}
+
+	@Override
+	public int hashCode() {
+		if (value instanceof Object[])
+			return Arrays.deepHashCode((Object[]) value);
+		return value == null ? 0 : value.hashCode();
+	}
+
 	@Override
 	public String toString(){
 		
@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 public enum Status {
 	
 	SUCCESS(0x0000), 			//0
+	SUPERSEDED(0x0001),			//1
 	INVALID_MESSAGE(0x0064),	//100
 	UNSUPPORTED_MESSAGE(0x0065),//101
 	UNEXPECTED_MESSAGE(0x0066), //102
@@ -14,6 +15,8 @@ public enum Status {
 	INVALID_PARAMETER(0x012c), 	//300
 	INVALID_PARAM_TYPE(0x012d), //301
 	INVALID_PARAM_VALUE(0x012e),//302
+	SERVER_BUSY(0x0190),		//400
+	TIMEOUT(0x0191),			//401
 	APPLICATION_ERROR(0x01f4);  //500
 	
 	public static final int BYTE_COUNT = 2;
@@ -32,6 +35,7 @@ public enum Status {
 	public static Status forValue(short value) {
 		switch(value) {
 			case 0x0000 : return SUCCESS;
+			case 0x0001 : return SUPERSEDED;
 			case 0x0064 : return INVALID_MESSAGE;
 			case 0x0065 : return UNSUPPORTED_MESSAGE;
 			case 0x0066 : return UNEXPECTED_MESSAGE;
@@ -41,6 +45,8 @@ public enum Status {
 			case 0x012c : return INVALID_PARAMETER;
 			case 0x012d : return INVALID_PARAM_TYPE;
 			case 0x012e : return INVALID_PARAM_VALUE;
+			case 0x0190 : return SERVER_BUSY;
+			case 0x0191 : return TIMEOUT;
 			case 0x01f4 : return APPLICATION_ERROR;
 			default : return null;
 		}
@@ -65,6 +65,37 @@ public class Struct implements MessagePart {
 		for(StructField sf : fields) sf.serialize(bb);
 	}
 
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((structId == null) ? 0 : structId.hashCode());
+		result = prime * result + ((fields == null) ? 0 : fields.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Struct other = (Struct) obj;
+		if (structId == null) {
+			if (other.structId != null)
+				return false;
+		} else if (!structId.equals(other.structId))
+			return false;
+		if (fields == null) {
+			if (other.fields != null)
+				return false;
+		} else if (!fields.equals(other.fields))
+			return false;
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		String fieldStr = "";
@@ -1,14 +1,22 @@
 package havis.opcua.message.common.model;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Subscribe extends Message {
 
 	private ParamId paramId;
+	private List<SubscriptionFilter> filters;
 	
 	public Subscribe(ParamId paramId, int messageId) {
+		this(paramId, new ArrayList<SubscriptionFilter>(), messageId);
+	}
+
+	public Subscribe(ParamId paramId, List<SubscriptionFilter> filters, int messageId) {
 		super(MessageType.SUBSCRIBE, messageId);
 		this.paramId = paramId;
+		this.filters = filters;
 	}
 
 	public Subscribe(MessageHeader mh, ByteBuffer bb) {
@@ -18,6 +26,7 @@ public class Subscribe extends Message {
 			throw new IllegalArgumentException("Invalid message type: " + getMessageHeader().getMessageType());
 
 		this.paramId = new ParamId(bb);	
+		this.filters = deserializeFilters(bb);
 	}
 	
 	public Subscribe(ByteBuffer bb) {
@@ -27,6 +36,20 @@ public class Subscribe extends Message {
 			throw new IllegalArgumentException("Invalid message type: " + getMessageHeader().getMessageType());
 
 		this.paramId = new ParamId(bb);	
+		this.filters = deserializeFilters(bb);
+	}
+
+	/**
+	 * Filters are optional, the filter block is omitted if there is none
+	 */
+	private List<SubscriptionFilter> deserializeFilters(ByteBuffer bb) {
+		List<SubscriptionFilter> filters = new ArrayList<>();
+		if (getMessageHeader().getMessageLength() > super.getByteCount() + paramId.getByteCount()) {
+			short filterCount = bb.getShort();
+			for (short s = 0; s < filterCount; s++)
+				filters.add(new SubscriptionFilter(bb));
+		}
+		return filters;
 	}
 
 	public ParamId getParamId() {
@@ -37,19 +60,39 @@ public class Subscribe extends Message {
 		this.paramId = paramId;
 	}
 
+	public List<SubscriptionFilter> getFilters() {
+		return filters;
+	}
+
+	public void setFilters(List<SubscriptionFilter> filters) {
+		this.filters = filters;
+	}
+
 	@Override
 	public int getByteCount() {
-		return super.getByteCount() + paramId.getByteCount();
+		int byteCount = super.getByteCount() + paramId.getByteCount();
+		if (!filters.isEmpty()) {
+			byteCount += /* filter count */ Short.SIZE / 8;
+			for (SubscriptionFilter f : filters)
+				byteCount += f.getByteCount();
+		}
+		return byteCount;
 	}
 
 	public ByteBuffer serialize(ByteBuffer bb) {
 		getMessageHeader().serialize(bb);
 		getParamId().serialize(bb);
+		if (!filters.isEmpty()) {
+			bb.putShort((short) filters.size());
+			for (SubscriptionFilter f : filters)
+				f.serialize(bb);
+		}
 		return bb;
 	}
 	
 	@Override
 	public String toString() {
-		return "{ " + super.toString() + ", paramId = " + paramId + " }"; 
+		return "{ " + super.toString() + ", paramId = " + paramId
+				+ (filters.isEmpty() ? "" : ", filters = " + filters) + " }"; 
 	}
 }
@@ -0,0 +1,107 @@
+package havis.opcua.message.common.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Filter setting of a subscription, applied by the server before a
+ * notification of the parameter is sent to the subscriber
+ */
+public class SubscriptionFilter implements MessagePart {
+
+	public enum Type {
+		/**
+		 * A numeric value is only sent if it differs from the last sent value
+		 * by more than the absolute deadband
+		 */
+		ABSOLUTE_DEADBAND(0x01),
+		/**
+		 * A numeric value is only sent if it differs from the last sent value
+		 * by more than the deadband in percent of the last sent value
+		 */
+		PERCENT_DEADBAND(0x02),
+		/**
+		 * Minimum interval in milliseconds between two notifications of the
+		 * parameter, the latest value is sent when the interval has elapsed
+		 */
+		MIN_INTERVAL(0x03),
+		/**
+		 * Window in milliseconds to aggregate numeric values in, a struct with
+		 * the minimum, maximum, average and count of the values is sent at the
+		 * end of each window
+		 */
+		AGGREGATE(0x04),
+		/**
+		 * Interval in milliseconds to sample the parameter in if the data
+		 * provider does not notify changes, only changed values are sent
+		 */
+		SAMPLING_INTERVAL(0x05);
+
+		public static final int BYTE_COUNT = 1;
+
+		private byte value;
+
+		private Type(int value) {
+			this.value = (byte) value;
+		}
+
+		public byte getValue() {
+			return value;
+		}
+
+		public static Type forValue(byte value) {
+			for (Type v : values()) {
+				if (v.value == value) {
+					return v;
+				}
+			}
+			return null;
+		}
+	}
+
+	private Type type;
+	private ParamValue value;
+
+	public SubscriptionFilter(Type type, ParamValue value) {
+		this.type = type;
+		this.value = value;
+	}
+
+	protected SubscriptionFilter(ByteBuffer bb) throws IllegalArgumentException {
+		byte typeVal = bb.get();
+		this.type = Type.forValue(typeVal);
+		if (type == null)
+			throw new IllegalArgumentException("Invalid filter type: " + typeVal);
+		this.value = new ParamValue(bb);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public ParamValue getValue() {
+		return value;
+	}
+
+	public void setValue(ParamValue value) {
+		this.value = value;
+	}
+
+	@Override
+	public int getByteCount() {
+		return Type.BYTE_COUNT + value.getByteCount();
+	}
+
+	protected void serialize(ByteBuffer bb) {
+		bb.put(type.getValue());
+		value.serialize(bb);
+	}
+
+	@Override
+	public String toString() {
+		return "{ type = " + type + ", value = " + value + " }";
+	}
+}
@@ -0,0 +1,38 @@
+package havis.opcua.message.common.serialize;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the buffers messages are serialized into, keeping a size estimate
+ * per kind of buffer, e.g. per message type
+ */
+public interface BufferAllocator {
+
+	/**
+	 * @return the capacity of the largest pooled buffer, larger buffers are
+	 *         not reused
+	 */
+	int getMaxBufferSize();
+
+	/**
+	 * @return the estimated size of the next buffer of the kind, 0 if there
+	 *         is no estimate yet
+	 */
+	int getSizeEstimate(int kind);
+
+	/**
+	 * Updates the size estimate of a kind with the size actually used
+	 */
+	void updateSizeEstimate(int kind, int size);
+
+	/**
+	 * Leases a buffer with a capacity of at least the specified size. The
+	 * returned buffer is cleared and its limit is set to the requested size.
+	 */
+	ByteBuffer acquire(int size);
+
+	/**
+	 * Hands a leased buffer back
+	 */
+	void release(ByteBuffer bb);
+}
@@ -1,11 +1,15 @@
 package havis.opcua.message.common.serialize;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import havis.opcua.message.common.model.Message;
 import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.model.MessageType;
 
 public class MessageSerializer {
+
+	private static final int MIN_SIZE_ESTIMATE = 64;
 	
 	public static byte[] serialize(MessageHeader mh) {
 		ByteBuffer bb = ByteBuffer.allocate(MessageHeader.BYTE_COUNT);
@@ -18,5 +22,65 @@ public class MessageSerializer {
 		ByteBuffer bb = ByteBuffer.allocate(m.getMessageHeader().getMessageLength());
 		return m.serialize(bb).array();		
 	}
-	
+
+	/**
+	 * Serializes the message into a buffer leased from the specified allocator.
+	 * The message is encoded in a single pass into a buffer sized by an
+	 * estimate of the allocator for its message type, the length field of the
+	 * header is patched afterwards. Only if the estimate was too small the
+	 * exact size is computed and the message is encoded again. The estimate
+	 * is capped at the largest pooled buffer size, messages of a type
+	 * recently reaching it are sized exactly. The returned buffer is
+	 * flipped for writing and must be released to the allocator by the caller,
+	 * e.g. by submitting it to the message server for release.
+	 */
+	public static ByteBuffer serialize(Message m, BufferAllocator allocator) {
+		int kind = m.getMessageHeader().getMessageType().ordinal();
+		int estimate = Math.max(allocator.getSizeEstimate(kind), MIN_SIZE_ESTIMATE);
+		int size = estimate + (estimate >> 3);
+		int max = allocator.getMaxBufferSize();
+		if (size > max) {
+			/* only messages above the largest size class get unpooled buffers */
+			int byteCount = m.getByteCount();
+			size = byteCount > max ? byteCount : max;
+		}
+
+		ByteBuffer bb = allocator.acquire(size);
+		int length;
+		try {
+			bb.limit(bb.capacity());
+			try {
+				length = encode(m, bb);
+			} catch (BufferOverflowException e) {
+				/* the estimate was too small, encode again with the exact size */
+				int byteCount = m.getByteCount();
+				allocator.release(bb);
+				bb = allocator.acquire(byteCount);
+				length = encode(m, bb);
+			}
+		} catch (RuntimeException e) {
+			allocator.release(bb);
+			throw e;
+		}
+
+		allocator.updateSizeEstimate(kind, length);
+
+		bb.flip();
+		return bb;
+	}
+
+	/**
+	 * Encodes the message at the current position of the buffer and patches
+	 * the length field of the header.
+	 *
+	 * @return the message length
+	 */
+	private static int encode(Message m, ByteBuffer bb) {
+		int start = bb.position();
+		m.serialize(bb);
+		int length = bb.position() - start;
+		bb.putInt(start + MessageType.BYTE_COUNT, length);
+		m.getMessageHeader().setMessageLength(length);
+		return length;
+	}
 }
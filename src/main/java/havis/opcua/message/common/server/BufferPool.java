@@ -0,0 +1,197 @@
+package havis.opcua.message.common.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import havis.opcua.message.common.serialize.BufferAllocator;
+
+/**
+ * Pool of byte buffers organized in size classes of powers of two. Buffers are
+ * leased with {@link #acquire(int)} and must be handed back exactly once with
+ * {@link #release(ByteBuffer)} as soon as they are no longer used. Requests
+ * larger than the largest size class are served with unpooled buffers.
+ */
+public class BufferPool implements BufferAllocator {
+
+	public static final int MIN_BUFFER_SIZE = 64;
+	public static final int MAX_BUFFER_SIZE = 64 * 1024;
+	public static final int BUFFERS_PER_CLASS = 64;
+
+	/**
+	 * Number of kinds of buffers with a size estimate, e.g. message types
+	 */
+	public static final int SIZE_ESTIMATE_KINDS = 16;
+
+	private final boolean direct;
+	private final int minShift;
+	private final int maxShift;
+	private final BlockingQueue<ByteBuffer>[] freeBuffers;
+	/* size estimates per kind, capped at the largest size class */
+	private final AtomicIntegerArray sizeEstimates = new AtomicIntegerArray(SIZE_ESTIMATE_KINDS);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong discards = new AtomicLong();
+
+	public BufferPool(boolean direct) {
+		this(direct, MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, BUFFERS_PER_CLASS);
+	}
+
+	/**
+	 * @param direct
+	 *            whether to allocate direct buffers instead of heap buffers
+	 * @param minBufferSize
+	 *            capacity of the smallest size class, rounded up to a power of
+	 *            two
+	 * @param maxBufferSize
+	 *            capacity of the largest size class, rounded up to a power of
+	 *            two
+	 * @param buffersPerClass
+	 *            maximum number of idle buffers kept per size class
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(boolean direct, int minBufferSize, int maxBufferSize, int buffersPerClass) {
+		if (minBufferSize < 1 || maxBufferSize < minBufferSize || buffersPerClass < 1)
+			throw new IllegalArgumentException("Invalid buffer pool configuration: minBufferSize=" + minBufferSize
+					+ ", maxBufferSize=" + maxBufferSize + ", buffersPerClass=" + buffersPerClass);
+
+		this.direct = direct;
+		this.minShift = shift(minBufferSize);
+		this.maxShift = shift(maxBufferSize);
+		this.freeBuffers = new BlockingQueue[maxShift - minShift + 1];
+		for (int i = 0; i < freeBuffers.length; i++)
+			freeBuffers[i] = new ArrayBlockingQueue<>(buffersPerClass);
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return the capacity of the largest size class
+	 */
+	@Override
+	public int getMaxBufferSize() {
+		return 1 << maxShift;
+	}
+
+	/**
+	 * @param kind
+	 *            the kind of the buffer, less than
+	 *            {@link #SIZE_ESTIMATE_KINDS}
+	 * @return the estimated size of the next buffer of the kind, 0 if there
+	 *         is no estimate yet
+	 */
+	@Override
+	public int getSizeEstimate(int kind) {
+		return sizeEstimates.get(kind);
+	}
+
+	/**
+	 * Updates the size estimate of a kind with the size actually used. The
+	 * estimate follows larger sizes immediately and decays slowly for smaller
+	 * ones. It is capped at the largest size class, so a single large buffer
+	 * does not push the following ones out of the pool.
+	 */
+	@Override
+	public void updateSizeEstimate(int kind, int size) {
+		int estimate = sizeEstimates.get(kind);
+		int max = getMaxBufferSize();
+		sizeEstimates.set(kind, size >= estimate ? Math.min(size, max) : estimate - ((estimate - size) >> 4));
+	}
+
+	/**
+	 * Leases a buffer with a capacity of at least the specified size. The
+	 * returned buffer is cleared and its limit is set to the requested size.
+	 */
+	@Override
+	public ByteBuffer acquire(int size) {
+		int shift = Math.max(shift(size), minShift);
+
+		ByteBuffer bb;
+		if (shift > maxShift) {
+			misses.incrementAndGet();
+			bb = allocate(size);
+		} else {
+			bb = freeBuffers[shift - minShift].poll();
+			if (bb != null)
+				hits.incrementAndGet();
+			else {
+				misses.incrementAndGet();
+				bb = allocate(1 << shift);
+			}
+		}
+
+		bb.clear();
+		bb.limit(size);
+		return bb;
+	}
+
+	/**
+	 * Hands a leased buffer back to the pool. Buffers which do not belong to a
+	 * size class of this pool are discarded.
+	 */
+	@Override
+	public void release(ByteBuffer bb) {
+		if (bb == null)
+			return;
+
+		int capacity = bb.capacity();
+		int shift = shift(capacity);
+		if (bb.isDirect() != direct || bb.isReadOnly() || capacity != 1 << shift || shift < minShift
+				|| shift > maxShift || !freeBuffers[shift - minShift].offer(bb))
+			discards.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of leases served from idle pooled buffers
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of leases which required a new allocation
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of released buffers dropped because they did not fit
+	 *         into the pool
+	 */
+	public long getDiscards() {
+		return discards.get();
+	}
+
+	/**
+	 * @return the number of idle buffers currently held by the pool
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for (BlockingQueue<ByteBuffer> queue : freeBuffers)
+			count += queue.size();
+		return count;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * @return the exponent of the smallest power of two not less than size
+	 */
+	private static int shift(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{ direct = %b, hits = %d, misses = %d, discards = %d, idle = %d }", direct, getHits(),
+				getMisses(), getDiscards(), getIdleCount());
+	}
+}
@@ -0,0 +1,436 @@
+package havis.opcua.message.common.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.model.ParamId;
+
+/**
+ * A single client connection of the {@link MessageServer}. Each connection
+ * keeps its own frame decoder, its own write queue and the set of parameters
+ * the client subscribed to. The write queue is bounded by the frame and byte
+ * limits of the server, which apply to notifications and events only.
+ */
+public class Connection {
+
+	private static final AtomicInteger ID_SEED = new AtomicInteger();
+
+	/**
+	 * Maximum number of buffers passed to a single gathering write
+	 */
+	static final int MAX_GATHER_BUFFERS = 64;
+
+	private final int id;
+	private final SocketChannel channel;
+	private final SocketAddress remoteAddress;
+	private final MessageServer server;
+	private final Deque<Frame> pendingFrames;
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Condition queueNotFull = queueLock.newCondition();
+	/* guards the decoder which is reset by the thread closing the connection */
+	private final ReentrantLock readLock = new ReentrantLock();
+	private final FrameDecoder decoder;
+	private final FrameDecoder.FrameHandler frameHandler;
+	private final Set<ParamId> subscriptions;
+	private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_BUFFERS];
+	private SelectionKey selectionKey;
+	private volatile int queuedFrames;
+	private volatile int queuedBytes;
+	private volatile long droppedFrames;
+	private volatile boolean overflowed;
+	private boolean closed;
+	private volatile long bytesSent;
+	private volatile long framesSent;
+	private int lastFlushedBytes;
+	private int lastFlushedFrames;
+
+	Connection(MessageServer server, SocketChannel channel) {
+		this.id = ID_SEED.incrementAndGet();
+		this.server = server;
+		this.channel = channel;
+		this.remoteAddress = channel.socket().getRemoteSocketAddress();
+		this.pendingFrames = new ArrayDeque<>();
+		this.decoder = new FrameDecoder(server.getMaxMessageLength(), server.getBufferPool());
+		this.frameHandler = new FrameDecoder.FrameHandler() {
+			@Override
+			public void frame(MessageHeader msgHeader, ByteBuffer msgBody) {
+				received(msgHeader, msgBody);
+			}
+		};
+		this.subscriptions = ConcurrentHashMap.newKeySet();
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public SocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+	 * @return the parameters this client subscribed to, maintained by the
+	 *         message listener
+	 */
+	public Set<ParamId> getSubscriptions() {
+		return subscriptions;
+	}
+
+	/**
+	 * @return the number of bytes written to the client
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return the number of buffers completely written to the client
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * @return the number of frames waiting to be written to the client
+	 */
+	public int getQueuedFrames() {
+		return queuedFrames;
+	}
+
+	/**
+	 * @return the number of bytes waiting to be written to the client
+	 */
+	public int getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * @return the number of notifications and events dropped because the
+	 *         write queue was full
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	SelectionKey getSelectionKey() {
+		return selectionKey;
+	}
+
+	void setSelectionKey(SelectionKey selectionKey) {
+		this.selectionKey = selectionKey;
+	}
+
+	boolean hasPendingWrites() {
+		return queuedFrames > 0;
+	}
+
+	/**
+	 * @return true if the write queue overflowed with the
+	 *         {@link OverflowPolicy#DISCONNECT} policy
+	 */
+	boolean isOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * Queues a buffer for writing. Droppable buffers, i.e. notifications and
+	 * events, are subject to the queue limits and the overflow policy of the
+	 * server. Other buffers are always queued.
+	 *
+	 * @return false if the client has to be disconnected because the queue
+	 *         overflowed
+	 */
+	boolean submit(ByteBuffer bb, boolean droppable) {
+		return submit(bb, null, droppable);
+	}
+
+	/**
+	 * Queues a buffer for writing, the shared buffer is released as soon as
+	 * the buffer has been written or dropped.
+	 */
+	boolean submit(ByteBuffer bb, SharedBuffer shared, boolean droppable) {
+		Frame frame = new Frame(bb, shared, droppable);
+
+		queueLock.lock();
+		try {
+			if (closed) {
+				frame.release();
+				return true;
+			}
+
+			if (droppable && isFull(frame.length)) {
+				switch (server.getOverflowPolicy()) {
+				case BLOCK:
+					if (!awaitNotFull(frame.length)) {
+						drop(frame);
+						return true;
+					}
+					break;
+				case DROP_NEWEST:
+					drop(frame);
+					return true;
+				case DROP_OLDEST:
+					while (isFull(frame.length) && dropOldest())
+						;
+					if (isFull(frame.length)) {
+						drop(frame);
+						return true;
+					}
+					break;
+				case DISCONNECT:
+					overflowed = true;
+					drop(frame);
+					return false;
+				}
+			}
+
+			pendingFrames.add(frame);
+			queuedFrames++;
+			queuedBytes += frame.length;
+			return true;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	/**
+	 * A single frame exceeding the byte limit is accepted if the queue is
+	 * empty.
+	 */
+	private boolean isFull(int length) {
+		return queuedFrames >= server.getMaxQueuedFrames()
+				|| (queuedFrames > 0 && queuedBytes + length > server.getMaxQueuedBytes());
+	}
+
+	private boolean awaitNotFull(int length) {
+		/* the selector thread drains the queue and must never wait for it */
+		if (server.isSelectorThread())
+			return false;
+
+		long nanos = TimeUnit.MILLISECONDS.toNanos(server.getOverflowTimeout());
+		try {
+			while (isFull(length)) {
+				if (nanos <= 0 || !channel.isOpen())
+					return false;
+				nanos = queueNotFull.awaitNanos(nanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the oldest droppable frame which has not been partially written
+	 * yet.
+	 *
+	 * @return false if there is no such frame
+	 */
+	private boolean dropOldest() {
+		for (Iterator<Frame> it = pendingFrames.iterator(); it.hasNext();) {
+			Frame frame = it.next();
+			if (frame.droppable && frame.buffer.remaining() == frame.length) {
+				it.remove();
+				queuedFrames--;
+				queuedBytes -= frame.length;
+				drop(frame);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void drop(Frame frame) {
+		droppedFrames++;
+		server.dropped(frame.length);
+		frame.release();
+	}
+
+	/**
+	 * Reads the available bytes from the channel and passes each complete
+	 * frame to the message listener.
+	 *
+	 * @return false if the end of stream has been reached
+	 */
+	boolean read() throws IOException, MalformedMessageException {
+		BufferPool bufferPool = server.getBufferPool();
+		ByteBuffer buffer = bufferPool.acquire(MessageServer.READ_BUFFER_SIZE);
+
+		readLock.lock();
+		try {
+			/* the decoder of a closed connection has been reset */
+			if (!channel.isOpen() || channel.read(buffer) < 0)
+				return false;
+
+			buffer.flip();
+			decoder.decode(buffer, frameHandler);
+			return true;
+		} finally {
+			readLock.unlock();
+			/* frames have been processed or copied by the decoder */
+			bufferPool.release(buffer);
+		}
+	}
+
+	private void received(MessageHeader msgHeader, ByteBuffer msgBody) {
+		MessageListener listener = server.getMessageListener();
+		if (listener == null)
+			return;
+
+		try {
+			listener.received(this, msgHeader, msgBody);
+		} catch (RuntimeException e) {
+			listener.errorOccurred(e);
+		}
+	}
+
+	/**
+	 * Writes as many pending buffers as the channel accepts. The buffers are
+	 * passed in batches to gathering writes until the queue is drained or the
+	 * socket send buffer is full.
+	 *
+	 * @return true if all pending buffers have been written
+	 */
+	boolean flush() throws IOException {
+		int bytes = 0;
+		int frames = 0;
+
+		/*
+		 * the queue is locked during the non-blocking writes, so no frame can
+		 * be dropped while it is passed to the channel
+		 */
+		queueLock.lock();
+		try {
+			while (true) {
+				int count = 0;
+				for (Frame frame : pendingFrames) {
+					if (count == gatherBuffers.length)
+						break;
+					gatherBuffers[count++] = frame.buffer;
+				}
+				if (count == 0)
+					return true;
+
+				bytes += (int) channel.write(gatherBuffers, 0, count);
+
+				int complete = 0;
+				while (complete < count && !gatherBuffers[complete].hasRemaining()) {
+					Frame frame = pendingFrames.remove();
+					queuedFrames--;
+					queuedBytes -= frame.length;
+					frame.release();
+					complete++;
+				}
+				frames += complete;
+				Arrays.fill(gatherBuffers, 0, count, null);
+
+				/* the socket did not accept everything, wait for OP_WRITE */
+				if (complete < count)
+					return false;
+			}
+		} finally {
+			if (frames > 0)
+				queueNotFull.signalAll();
+			queueLock.unlock();
+
+			lastFlushedBytes = bytes;
+			lastFlushedFrames = frames;
+			bytesSent += bytes;
+			framesSent += frames;
+		}
+	}
+
+	/**
+	 * @return the number of bytes written by the last call of {@link #flush()}
+	 */
+	int getLastFlushedBytes() {
+		return lastFlushedBytes;
+	}
+
+	/**
+	 * @return the number of buffers completed by the last call of
+	 *         {@link #flush()}
+	 */
+	int getLastFlushedFrames() {
+		return lastFlushedFrames;
+	}
+
+	void close() {
+		queueLock.lock();
+		try {
+			closed = true;
+			for (Frame frame : pendingFrames)
+				frame.release();
+			pendingFrames.clear();
+			queuedFrames = 0;
+			queuedBytes = 0;
+			/* wake up producers blocked on the queue */
+			queueNotFull.signalAll();
+		} finally {
+			queueLock.unlock();
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+
+		/*
+		 * close may be called by another thread than the selector thread, the
+		 * decoder is reset once a read in progress has completed
+		 */
+		readLock.lock();
+		try {
+			decoder.reset();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	private static class Frame {
+		final ByteBuffer buffer;
+		final SharedBuffer shared;
+		final int length;
+		final boolean droppable;
+
+		Frame(ByteBuffer buffer, SharedBuffer shared, boolean droppable) {
+			this.buffer = buffer;
+			this.shared = shared;
+			this.length = buffer.remaining();
+			this.droppable = droppable;
+		}
+
+		void release() {
+			if (shared != null)
+				shared.release();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "#" + id + " " + remoteAddress;
+	}
+}
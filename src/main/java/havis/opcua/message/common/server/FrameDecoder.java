@@ -0,0 +1,138 @@
+package havis.opcua.message.common.server;
+
+import java.nio.ByteBuffer;
+
+import havis.opcua.message.common.model.MessageHeader;
+
+/**
+ * Incremental decoder splitting a byte stream into message frames. A frame
+ * consists of the {@link MessageHeader} and the message body. Any number of
+ * frames may be decoded from one read, a partial frame is kept until the
+ * following reads complete it. Buffers for bodies split across reads are
+ * leased from a {@link BufferPool}.
+ */
+class FrameDecoder {
+
+	interface FrameHandler {
+		/**
+		 * Called for each complete frame. The body buffer is only valid until
+		 * the method returns.
+		 */
+		void frame(MessageHeader msgHeader, ByteBuffer msgBody);
+	}
+
+	private final int maxMessageLength;
+	private final BufferPool bufferPool;
+	private final ByteBuffer msgHeaderBuffer = ByteBuffer.allocate(MessageHeader.BYTE_COUNT);
+	private MessageHeader msgHeader;
+	private ByteBuffer msgBodyBuffer;
+
+	FrameDecoder(int maxMessageLength, BufferPool bufferPool) {
+		this.maxMessageLength = maxMessageLength;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Decodes all complete frames from the remaining bytes of the source
+	 * buffer. Bytes of an incomplete frame are copied and kept for the next
+	 * call.
+	 */
+	void decode(ByteBuffer src, FrameHandler handler) throws MalformedMessageException {
+		while (src.hasRemaining()) {
+
+			if (msgHeader == null) {
+				/* parse the header in place if it is not split across reads */
+				if (msgHeaderBuffer.position() == 0 && src.remaining() >= MessageHeader.BYTE_COUNT)
+					msgHeader = readHeader(src);
+				else {
+					transfer(src, msgHeaderBuffer, msgHeaderBuffer.remaining());
+					if (msgHeaderBuffer.hasRemaining())
+						return;
+
+					msgHeaderBuffer.flip();
+					msgHeader = readHeader(msgHeaderBuffer);
+					msgHeaderBuffer.clear();
+				}
+			}
+
+			int bodyLength = msgHeader.getMessageLength() - MessageHeader.BYTE_COUNT;
+
+			if (msgBodyBuffer == null) {
+				/* pass a slice of the source if the body is complete */
+				if (src.remaining() >= bodyLength) {
+					ByteBuffer body = src.slice();
+					body.limit(bodyLength);
+					src.position(src.position() + bodyLength);
+					complete(body, handler);
+					continue;
+				}
+				msgBodyBuffer = bufferPool.acquire(bodyLength);
+			}
+
+			transfer(src, msgBodyBuffer, msgBodyBuffer.remaining());
+			if (msgBodyBuffer.hasRemaining())
+				return;
+
+			msgBodyBuffer.flip();
+			ByteBuffer body = msgBodyBuffer;
+			msgBodyBuffer = null;
+			try {
+				complete(body, handler);
+			} finally {
+				bufferPool.release(body);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the decoder holds the bytes of an incomplete frame
+	 */
+	boolean hasPartialFrame() {
+		return msgHeader != null || msgHeaderBuffer.position() > 0;
+	}
+
+	void reset() {
+		msgHeaderBuffer.clear();
+		msgHeader = null;
+		bufferPool.release(msgBodyBuffer);
+		msgBodyBuffer = null;
+	}
+
+	private void complete(ByteBuffer body, FrameHandler handler) {
+		MessageHeader header = msgHeader;
+		msgHeader = null;
+		handler.frame(header, body);
+	}
+
+	private MessageHeader readHeader(ByteBuffer bb) throws MalformedMessageException {
+		MessageHeader header;
+		try {
+			header = new MessageHeader(bb);
+		} catch (IllegalArgumentException e) {
+			reset();
+			throw new MalformedMessageException(e.getMessage(), e);
+		}
+
+		if (header.getMessageLength() < MessageHeader.BYTE_COUNT || header.getMessageLength() > maxMessageLength) {
+			reset();
+			throw new MalformedMessageException("Invalid message length: " + header.getMessageLength());
+		}
+		return header;
+	}
+
+	/**
+	 * Copies up to count bytes from the source to the destination buffer with
+	 * a single bulk operation.
+	 */
+	static void transfer(ByteBuffer src, ByteBuffer dst, int count) {
+		int n = Math.min(count, src.remaining());
+		if (n == src.remaining()) {
+			dst.put(src);
+			return;
+		}
+		ByteBuffer chunk = src.duplicate();
+		chunk.limit(chunk.position() + n);
+		dst.put(chunk);
+		src.position(src.position() + n);
+	}
+}
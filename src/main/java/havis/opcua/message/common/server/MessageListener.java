@@ -7,15 +7,15 @@ import havis.opcua.message.common.model.MessageHeader;
 
 public interface MessageListener {
 	
-	void received(MessageHeader msgHdr, ByteBuffer msgBodyBytes);
+	void received(Connection connection, MessageHeader msgHdr, ByteBuffer msgBodyBytes);
 	
-	void sent(ByteBuffer bb);
+	void sent(Connection connection, ByteBuffer bb);
 	
-	void accepted(SocketAddress remoteHost);
+	void accepted(Connection connection);
 	
 	void rejected(SocketAddress socketAddress);
 	
-	void disconnected(SocketAddress remoteHost);
+	void disconnected(Connection connection);
 	
 	void errorOccurred(Throwable error);
 	
@@ -2,51 +2,93 @@ package havis.opcua.message.common.server;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import havis.opcua.message.common.model.MessageHeader;
 
 public class MessageServer implements Callable<Object> {
 
 	public static final int PORT = 4223;
+	/**
+	 * @deprecated the receive timeout is not used, see
+	 *             {@link #MessageServer(int, int)}
+	 */
+	@Deprecated
 	public static final int RECV_TIMEOUT_MS = 500;
+	public static final int MAX_CONNECTIONS = 8;
+	public static final int MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+	public static final int READ_BUFFER_SIZE = 1024;
+	public static final int MAX_QUEUED_FRAMES = 10000;
+	public static final int MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+	public static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+	public static final int OVERFLOW_TIMEOUT_MS = 1000;
+	public static final int WRITE_BUFFERS_PER_CLASS = 256;
+	private final Logger log = Logger.getLogger(MessageServer.class.getName());
 	private int port;
-	private Selector selector;
-	private SocketChannel csc;
-	private boolean serverRunning;
+	private int maxConnections = MAX_CONNECTIONS;
+	private int maxMessageLength = MAX_MESSAGE_LENGTH;
+	private BufferPool bufferPool = new BufferPool(false);
+	private BufferPool writeBufferPool = new BufferPool(true, BufferPool.MIN_BUFFER_SIZE, BufferPool.MAX_BUFFER_SIZE,
+			WRITE_BUFFERS_PER_CLASS);
+	private int maxQueuedFrames = MAX_QUEUED_FRAMES;
+	private int maxQueuedBytes = MAX_QUEUED_BYTES;
+	private OverflowPolicy overflowPolicy = OVERFLOW_POLICY;
+	private int overflowTimeout = OVERFLOW_TIMEOUT_MS;
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final AtomicLong droppedBytes = new AtomicLong();
+	private final AtomicLong overflowDisconnects = new AtomicLong();
+	private volatile Thread selectorThread;
+	/* null once the server has been stopped */
+	private volatile Selector selector;
+	private volatile boolean serverRunning;
 	private ServerSocketChannel ssc;
-	private BlockingQueue<ByteBuffer> pendingWriteBuffers;
-	private BlockingQueue<ByteBuffer> pendingReadBuffers;
+	private final Map<Integer, Connection> connections;
 	private MessageListener messageListener;
 	private ExecutorService threadPool;
-	private IncomingMessageProcessor msgProcessor;
-	
+
 	public MessageServer() {
-		this(PORT, RECV_TIMEOUT_MS);
+		this(PORT);
 	}
-	
+
 	public MessageServer(int port) {
-		this(port, RECV_TIMEOUT_MS);
+		this.port = port;
+		this.connections = new ConcurrentHashMap<>();
 	}
-	
+
+	/**
+	 * Creates a server listening on the port.
+	 *
+	 * @param recvTimeout
+	 *            not used, connections are served by a selector and wait for
+	 *            messages without a timeout
+	 * @deprecated the receive timeout has no effect, use
+	 *             {@link #MessageServer(int)}
+	 */
+	@Deprecated
 	public MessageServer(int port, int recvTimeout) {
-		this.port = port;
-		this.pendingWriteBuffers = new LinkedBlockingQueue<>();
-		this.pendingReadBuffers = new LinkedBlockingQueue<>();
+		this(port);
 	}
 
 	public MessageListener getMessageListener() {
@@ -56,7 +98,172 @@ public class MessageServer implements Callable<Object> {
 	public void setMessageListener(MessageListener messageListener) {
 		this.messageListener = messageListener;
 	}
-	
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent client connections. Further
+	 * connection attempts are rejected.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1)
+			throw new IllegalArgumentException("Invalid maximum number of connections: " + maxConnections);
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * Sets the maximum length of a received message including its header.
+	 * Clients sending longer messages are disconnected.
+	 */
+	public void setMaxMessageLength(int maxMessageLength) {
+		if (maxMessageLength < MessageHeader.BYTE_COUNT)
+			throw new IllegalArgumentException("Invalid maximum message length: " + maxMessageLength);
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Sets the pool for read buffers and received message bodies. Must be
+	 * called before the server is started.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null)
+			throw new IllegalArgumentException("Buffer pool must not be null");
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return the pool for buffers of outbound messages, direct buffers by
+	 *         default
+	 */
+	public BufferPool getWriteBufferPool() {
+		return writeBufferPool;
+	}
+
+	/**
+	 * Sets the pool for buffers of outbound messages. Must be called before
+	 * the server is started.
+	 */
+	public void setWriteBufferPool(BufferPool writeBufferPool) {
+		if (writeBufferPool == null)
+			throw new IllegalArgumentException("Write buffer pool must not be null");
+		this.writeBufferPool = writeBufferPool;
+	}
+
+	public int getMaxQueuedFrames() {
+		return maxQueuedFrames;
+	}
+
+	/**
+	 * Sets the maximum number of frames queued for writing per connection.
+	 * The limit applies to notifications and events, responses are always
+	 * queued.
+	 */
+	public void setMaxQueuedFrames(int maxQueuedFrames) {
+		if (maxQueuedFrames < 1)
+			throw new IllegalArgumentException("Invalid maximum number of queued frames: " + maxQueuedFrames);
+		this.maxQueuedFrames = maxQueuedFrames;
+	}
+
+	public int getMaxQueuedBytes() {
+		return maxQueuedBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes queued for writing per connection. The
+	 * limit applies to notifications and events, responses are always queued.
+	 */
+	public void setMaxQueuedBytes(int maxQueuedBytes) {
+		if (maxQueuedBytes < 1)
+			throw new IllegalArgumentException("Invalid maximum number of queued bytes: " + maxQueuedBytes);
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Sets the policy applied to notifications and events submitted to a
+	 * connection with a full write queue.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null)
+			throw new IllegalArgumentException("Overflow policy must not be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public int getOverflowTimeout() {
+		return overflowTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a producer waits for room in a full write
+	 * queue with the {@link OverflowPolicy#BLOCK} policy.
+	 */
+	public void setOverflowTimeout(int overflowTimeout) {
+		if (overflowTimeout < 0)
+			throw new IllegalArgumentException("Invalid overflow timeout: " + overflowTimeout);
+		this.overflowTimeout = overflowTimeout;
+	}
+
+	/**
+	 * @return the number of notifications and events dropped by all
+	 *         connections because of full write queues
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/**
+	 * @return the number of bytes of dropped notifications and events
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes.get();
+	}
+
+	/**
+	 * @return the number of clients disconnected because of full write queues
+	 */
+	public long getOverflowDisconnects() {
+		return overflowDisconnects.get();
+	}
+
+	/**
+	 * @return the number of frames queued for writing on all connections
+	 */
+	public int getQueuedFrames() {
+		int count = 0;
+		for (Connection connection : connections.values())
+			count += connection.getQueuedFrames();
+		return count;
+	}
+
+	void dropped(int length) {
+		droppedFrames.incrementAndGet();
+		droppedBytes.addAndGet(length);
+	}
+
+	boolean isSelectorThread() {
+		return Thread.currentThread() == selectorThread;
+	}
+
+	/**
+	 * @return the currently open client connections
+	 */
+	public Collection<Connection> getConnections() {
+		return Collections.unmodifiableCollection(connections.values());
+	}
+
 	@Override
 	public Object call() throws Exception {
 		if (this.ssc == null)
@@ -66,16 +273,30 @@ public class MessageServer implements Callable<Object> {
 		 * set server to be running (i.e. loop termination condition to false)
 		 */
 		this.serverRunning = true;
+		this.selectorThread = Thread.currentThread();
+		/* the field is cleared by stop() */
+		Selector selector = this.selector;
 
 		/* as long as server is running... */
 		while (serverRunning) {
-			if (!pendingWriteBuffers.isEmpty()) {
- 				SelectionKey selKey = csc.keyFor(selector);
- 				selKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
- 			}
-			
+			for (Connection connection : connections.values()) {
+				/* disconnect clients which did not keep up with their writes */
+				if (connection.isOverflowed()) {
+					overflowDisconnects.incrementAndGet();
+					log.log(Level.WARNING, "Disconnecting {0}: write queue overflow", connection);
+					disconnectClientSocket(connection);
+					continue;
+				}
+
+				SelectionKey selKey = connection.getSelectionKey();
+				if (connection.hasPendingWrites() && selKey.isValid())
+					selKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+
 			/* select the channel keys (this will wait for new connections) */
  			selector.select();
+			if (!serverRunning)
+				break;
 
 			/* get the key iterator */
 			Iterator<SelectionKey> iSelKey = selector.selectedKeys().iterator();
@@ -91,92 +312,159 @@ public class MessageServer implements Callable<Object> {
 				 * if key's channel is ready to accept connection establish
 				 * connection and get client channel
 				 */
-				if (selKey.isAcceptable()) {
-					/* accept connection if no connection exists yet */
-					if (csc == null || !csc.isConnected()) 
-						this.csc = accept();
-					
-					/* reject connection if a client socket already exists */
-					else {
-						ssc.accept().close();
-						
-						if (this.messageListener != null) 
-							this.messageListener.rejected(this.csc.socket().getRemoteSocketAddress());
+				if (selKey.isValid() && selKey.isAcceptable()) {
+					accept(selector);
+					continue;
+				}
+
+				Connection connection = (Connection) selKey.attachment();
+				if (connection == null)
+					continue;
+
+				try {
+					/* if client channel is readable, receive from client */
+					if (selKey.isValid() && selKey.isReadable() && !connection.read()) {
+						disconnectClientSocket(connection);
 						continue;
 					}
-				}
-				
-				/* if client channel is readable, receive from client */
-				if (selKey.isValid() && selKey.isReadable()) {
-					ByteBuffer buffer = ByteBuffer.allocate(1024);
-					
-					if (csc.read(buffer) < 0) {
-						disconnectClientSocket();
-						break;
+
+					/*
+					 * if client channel is writable, drain pending write buffers
+					 * and keep OP_WRITE only while data is left
+					 */
+					if (selKey.isValid() && selKey.isWritable()) {
+						boolean drained = connection.flush();
+						if (log.isLoggable(Level.FINEST))
+							log.log(Level.FINEST, "Flushed {0} bytes in {1} frames to {2}{3}",
+									new Object[] { connection.getLastFlushedBytes(), connection.getLastFlushedFrames(),
+											connection, drained ? "" : " (pending)" });
+						if (drained)
+							selKey.interestOps(SelectionKey.OP_READ);
 					}
-					
-					buffer.flip();
-					pendingReadBuffers.add(buffer);
-				}
-				
-				/* if client channel is writable, send pending write buffers */
-				if (selKey.isValid() && selKey.isWritable()) {
-					ByteBuffer buffer = pendingWriteBuffers.peek();
-					if (buffer != null) {
-						csc.write(buffer);
-						if(!buffer.hasRemaining())
-							pendingWriteBuffers.remove();
-					}										
-					selKey.interestOps(SelectionKey.OP_READ);					
+				} catch (IOException | MalformedMessageException e) {
+					/* the stream cannot be resynchronized after a malformed message */
+					if (this.messageListener != null)
+						this.messageListener.errorOccurred(e);
+					disconnectClientSocket(connection);
 				}
 			}
 		}
-		
+
 		return null;
 	}
-	
+
+	/**
+	 * Queues a response for sending to the specified client connection. The
+	 * buffer is queued regardless of the write queue limits.
+	 */
+	public void submit(Connection connection, ByteBuffer bb) throws IOException {
+		submit(connection, bb, false);
+	}
+
+	/**
+	 * Queues a response for sending to the specified client connection. If
+	 * release is set, the buffer has been leased from the write buffer pool
+	 * and is released after it has been written or discarded.
+	 */
+	public void submit(Connection connection, ByteBuffer bb, boolean release) throws IOException {
+		SharedBuffer shared = release ? new SharedBuffer(writeBufferPool, bb, 1) : null;
+		if (connection == null || !connection.isOpen() || !this.serverRunning) {
+			if (shared != null)
+				shared.release();
+			return;
+		}
+		connection.submit(bb, shared, false);
+		wakeup();
+	}
+
+	/**
+	 * Queues a notification or event for sending to all client connections.
+	 * Connections with a full write queue apply the overflow policy, with
+	 * {@link OverflowPolicy#BLOCK} this method may block for the overflow
+	 * timeout per connection.
+	 */
 	public void submit(ByteBuffer bb) throws IOException {
-		if (csc == null || !this.serverRunning) return;		
-		this.pendingWriteBuffers.add(bb);
-		selector.wakeup();
+		submit(bb, false);
 	}
-	
-	private SocketChannel accept() throws IOException {
+
+	/**
+	 * Queues a notification or event for sending to all client connections.
+	 * If release is set, the buffer has been leased from the write buffer pool
+	 * and is released after it has been written or discarded by all
+	 * connections.
+	 */
+	public void submit(ByteBuffer bb, boolean release) throws IOException {
+		submit(new ArrayList<>(connections.values()), bb, release);
+	}
+
+	/**
+	 * Queues a notification or event for sending to the specified client
+	 * connections. If release is set, the buffer has been leased from the
+	 * write buffer pool and is released after it has been written or
+	 * discarded by all connections.
+	 */
+	public void submit(Collection<Connection> recipients, ByteBuffer bb, boolean release) throws IOException {
+		Collection<Connection> targets = this.serverRunning ? recipients : Collections.<Connection> emptyList();
+		if (targets.isEmpty()) {
+			if (release)
+				writeBufferPool.release(bb);
+			return;
+		}
+
+		SharedBuffer shared = release ? new SharedBuffer(writeBufferPool, bb, targets.size()) : null;
+		for (Connection connection : targets)
+			connection.submit(bb.duplicate(), shared, true);
+		wakeup();
+	}
+
+	/**
+	 * Wakes up the selector thread to write the queued buffers, unless the
+	 * server has been stopped meanwhile
+	 */
+	private void wakeup() {
+		Selector selector = this.selector;
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	private void accept(Selector selector) throws IOException {
 
 		/* get the client socket channel CSC */
 		SocketChannel csc = ssc.accept();
+		if (csc == null)
+			return;
+
+		/* reject connection if the connection limit has been reached */
+		if (connections.size() >= maxConnections) {
+			SocketAddress remoteHost = csc.socket().getRemoteSocketAddress();
+			csc.close();
+
+			if (this.messageListener != null)
+				this.messageListener.rejected(remoteHost);
+			return;
+		}
 
 		/* set CSC to be unblocking */
 		csc.configureBlocking(false);
 
+		Connection connection = new Connection(this, csc);
+
 		/* register CSC for reading */
-		csc.register( selector, SelectionKey.OP_READ);
+		connection.setSelectionKey(csc.register(selector, SelectionKey.OP_READ, connection));
+		connections.put(connection.getId(), connection);
 
 		if (this.messageListener != null)
-			this.messageListener.accepted(csc.socket().getRemoteSocketAddress());
-
-		this.msgProcessor = new IncomingMessageProcessor();
-		this.msgProcessor.start();
-		
-		return csc;
+			this.messageListener.accepted(connection);
 	}
-	
-	private void disconnectClientSocket() {
 
-		try {
-			this.msgProcessor.running = false;
-			this.msgProcessor.join();
-			this.pendingReadBuffers.clear();
-			this.pendingWriteBuffers.clear();
-			csc.close();
-
-			if (messageListener != null)
-				this.messageListener.disconnected(csc.socket().getRemoteSocketAddress());
+	private void disconnectClientSocket(Connection connection) {
+		if (connections.remove(connection.getId()) == null)
+			return;
 
-			csc = null;
-		} catch (Exception e) {
+		connection.close();
 
-		}
+		if (messageListener != null)
+			this.messageListener.disconnected(connection);
 	}
 
 	private void disconnectServerSocket() {
@@ -192,7 +480,7 @@ public class MessageServer implements Callable<Object> {
 		}
 		this.selector = null;
 	}
-	
+
 	public void start() throws Exception {
 		try {
 			/* get the selector */
@@ -212,7 +500,7 @@ public class MessageServer implements Callable<Object> {
 
 			/* register SSC for accepting connections */
 			this.ssc.register(selector, SelectionKey.OP_ACCEPT);
-			
+
 			threadPool = Executors.newSingleThreadExecutor();
 			Future<Object> result = threadPool.submit(this);
 
@@ -223,7 +511,7 @@ public class MessageServer implements Callable<Object> {
 			} catch (Exception e) { // exception thrown during call()
 				throw e;
 			}
-			
+
 		} catch (Exception e) {
 			if (threadPool != null) {
 				threadPool.shutdown();
@@ -236,12 +524,13 @@ public class MessageServer implements Callable<Object> {
 
 	public void stop() throws Exception {
 		try {
-			
-			disconnectClientSocket();
-			disconnectServerSocket();
 
 			this.serverRunning = false;
-			
+
+			for (Connection connection : new ArrayList<>(connections.values()))
+				disconnectClientSocket(connection);
+			disconnectServerSocket();
+
 		} finally {
 			if (threadPool != null) {
 				threadPool.shutdown();
@@ -249,67 +538,4 @@ public class MessageServer implements Callable<Object> {
 			}
 		}
 	}
-
-	private class IncomingMessageProcessor extends Thread {
-
-		private ByteBuffer msgHeaderBuffer;
-		private ByteBuffer msgBodyBuffer;
-		
-		private boolean running;
-		
-		IncomingMessageProcessor() {
-			super(IncomingMessageProcessor.class.getCanonicalName());
-		}
-		
-		@Override
-		public void run() {			
-			
-			running = true;
-			
-			msgHeaderBuffer = ByteBuffer.allocate(MessageHeader.BYTE_COUNT);
-			ByteBuffer src = null;
-			ByteBuffer dst = msgHeaderBuffer;
-			int limit = MessageHeader.BYTE_COUNT;
-			
-			MessageHeader msgHeader = null;
-			
-			while (running) {
-				try {
-					if (dst.position() < limit) {					
-						if (src != null && src.hasRemaining())
-							dst.put(src.get());
-						else {
-							ByteBuffer bb = null;
-							/* while running and no new byte buffer becomes available in 500 ms */
-							while ( running && (bb = MessageServer.this.pendingReadBuffers.poll(500, TimeUnit.MILLISECONDS)) == null );							
-							
-							if (!running) break;
-							src = bb; 
-						}
-					} 
-					else {
-						if (dst == msgHeaderBuffer) {
-							dst.flip();							
-							msgHeader = new MessageHeader(dst);												
-							limit = msgHeader.getMessageLength() - MessageHeader.BYTE_COUNT;
-							dst = msgBodyBuffer = ByteBuffer.allocate(limit);						
-						}
-						else {						
-							msgBodyBuffer.flip();						
-							MessageServer.this.messageListener.received(msgHeader, msgBodyBuffer);
-							
-							msgHeaderBuffer.clear();
-							dst = msgHeaderBuffer;
-							limit = MessageHeader.BYTE_COUNT;						
-						}
-					}				
-				} catch (IllegalArgumentException | InterruptedException e) {
-					msgHeaderBuffer.clear();
-					dst = msgHeaderBuffer;
-					limit = MessageHeader.BYTE_COUNT;					
-					MessageServer.this.messageListener.errorOccurred(e);
-				}
-			}
-		}
-	}
 }
@@ -0,0 +1,27 @@
+package havis.opcua.message.common.server;
+
+/**
+ * Policy applied when a notification or event is submitted to a connection
+ * whose outbound queue has reached its frame or byte limit. Responses are
+ * always queued regardless of the limits.
+ */
+public enum OverflowPolicy {
+	/**
+	 * Block the submitting thread until the queue has room. The frame is
+	 * dropped if the timeout elapses.
+	 */
+	BLOCK,
+	/**
+	 * Drop the submitted frame.
+	 */
+	DROP_NEWEST,
+	/**
+	 * Drop the oldest queued notification or event to make room for the
+	 * submitted frame.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Disconnect the client.
+	 */
+	DISCONNECT
+}
@@ -0,0 +1,27 @@
+package havis.opcua.message.common.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pooled buffer referenced by the queued frames of one or more connections.
+ * Each frame writes its own duplicate of the buffer, which is returned to
+ * the pool when the last frame has been released.
+ */
+class SharedBuffer {
+
+	private final BufferPool bufferPool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger refCount;
+
+	SharedBuffer(BufferPool bufferPool, ByteBuffer buffer, int refCount) {
+		this.bufferPool = bufferPool;
+		this.buffer = buffer;
+		this.refCount = new AtomicInteger(refCount);
+	}
+
+	void release() {
+		if (refCount.decrementAndGet() == 0)
+			bufferPool.release(buffer);
+	}
+}
@@ -0,0 +1,136 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.DataProvider;
+import havis.opcua.message.exception.NoSuchParameterException;
+import havis.opcua.message.exception.ParameterException;
+
+public class AsyncDataProviderAdapterTest {
+
+	private static class Provider implements DataProvider {
+		volatile Thread thread;
+		volatile Object value;
+
+		@Override
+		public Object read(String id) throws ParameterException {
+			thread = Thread.currentThread();
+			if (!"foo".equals(id))
+				throw new NoSuchParameterException();
+			return value;
+		}
+
+		@Override
+		public void write(String id, Object value) throws ParameterException {
+			thread = Thread.currentThread();
+			this.value = value;
+		}
+
+		@Override
+		public void subscribe(String id) throws ParameterException {
+		}
+
+		@Override
+		public void unsubscribe(String id) throws ParameterException {
+		}
+
+		@Override
+		public Object[] call(String methodId, String paramId, Object[] params) throws ParameterException {
+			thread = Thread.currentThread();
+			return new Object[] { methodId, paramId, params.length };
+		}
+	}
+
+	@Test
+	public void testCallingThread() throws Exception {
+		Provider provider = new Provider();
+		AsyncDataProviderAdapter adapter = new AsyncDataProviderAdapter(provider);
+		assertSame(provider, adapter.getProvider());
+
+		CompletableFuture<Void> write = adapter.writeAsync("foo", "bar").toCompletableFuture();
+		assertTrue(write.isDone());
+		assertSame(Thread.currentThread(), provider.thread);
+
+		CompletableFuture<Object> read = adapter.readAsync("foo").toCompletableFuture();
+		assertTrue(read.isDone());
+		assertEquals("bar", read.get());
+
+		CompletableFuture<Object[]> call = adapter.callAsync("m", "o", new Object[] { 1, 2 }).toCompletableFuture();
+		assertArrayEquals(new Object[] { "m", "o", 2 }, call.get());
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		Provider provider = new Provider();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			AsyncDataProviderAdapter adapter = new AsyncDataProviderAdapter(provider, executor);
+
+			adapter.writeAsync("foo", 42).toCompletableFuture().get(5, TimeUnit.SECONDS);
+			assertNotSame(Thread.currentThread(), provider.thread);
+			assertEquals(42, adapter.readAsync("foo").toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+			/* rejected invocations complete exceptionally */
+			executor.shutdown();
+			try {
+				adapter.readAsync("foo").toCompletableFuture().get(5, TimeUnit.SECONDS);
+				fail("Expected ExecutionException");
+			} catch (ExecutionException e) {
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testKeyedExecutor() throws Exception {
+		Provider provider = new Provider();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			KeyedExecutor keyed = new KeyedExecutor(executor);
+			AsyncDataProviderAdapter adapter = new AsyncDataProviderAdapter(provider, keyed);
+
+			adapter.writeAsync("foo", 42).toCompletableFuture().get(5, TimeUnit.SECONDS);
+			assertNotSame(Thread.currentThread(), provider.thread);
+			assertEquals(42, adapter.readAsync("foo").toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+			/* rejected invocations complete exceptionally */
+			for (int i = 0; i < 100 && keyed.getActiveKeyCount() > 0; i++)
+				Thread.sleep(10);
+			executor.shutdown();
+			try {
+				adapter.readAsync("foo").toCompletableFuture().get(5, TimeUnit.SECONDS);
+				fail("Expected ExecutionException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testException() throws Exception {
+		AsyncDataProviderAdapter adapter = new AsyncDataProviderAdapter(new Provider());
+		try {
+			adapter.readAsync("bar").toCompletableFuture().get();
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NoSuchParameterException);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.Call;
+import havis.opcua.message.common.model.CallResponse;
+import havis.opcua.message.common.model.Message;
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.Status;
+import havis.opcua.message.common.serialize.MessageDeserializer;
+import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.BufferPool;
+
+public class CallCacheTest {
+
+	private final BufferPool pool = new BufferPool(false);
+
+	private static Call call(String objectId, Object arg, int messageId) {
+		return new Call(new ParamId(0, "rfr310.GetCapabilities"), new ParamId(0, objectId), new Object[] { arg },
+				messageId);
+	}
+
+	private static byte[] response(Call call, Object result) {
+		return MessageSerializer.serialize(
+				new CallResponse(call, Arrays.asList(new ParamValue(result)), Status.SUCCESS));
+	}
+
+	@Test
+	public void testKey() {
+		/* the message ID is not part of the key */
+		assertEquals(CallCache.key(call("rfr310", 1, 1)), CallCache.key(call("rfr310", 1, 2)));
+		assertEquals(CallCache.key(call("rfr310", 1, 1)).hashCode(), CallCache.key(call("rfr310", 1, 2)).hashCode());
+		assertNotEquals(CallCache.key(call("rfr310", 1, 1)), CallCache.key(call("rfr310", 2, 1)));
+		assertNotEquals(CallCache.key(call("rfr310", 1, 1)), CallCache.key(call("rfr311", 1, 1)));
+		assertNotEquals(CallCache.key(call("rfr310", 1, 1)), CallCache.key(call("rfr310", "1", 1)));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		CallCache cache = new CallCache(16);
+		Call call = call("rfr310", 1, 1);
+		ByteBuffer key = CallCache.key(call);
+
+		/* not cacheable */
+		cache.put("rfr310.GetCapabilities", key, response(call, "caps"));
+		assertNull(cache.get(key, 2, pool));
+
+		cache.setTtl("rfr310.GetCapabilities", 60000);
+		cache.put("rfr310.GetCapabilities", key, response(call, "caps"));
+
+		ByteBuffer bb = cache.get(CallCache.key(call("rfr310", 1, 7)), 7, pool);
+		assertNotNull(bb);
+		byte[] bytes = new byte[bb.remaining()];
+		bb.get(bytes);
+		Message msg = MessageDeserializer.deserialize(bytes);
+		assertEquals(7, msg.getMessageHeader().getMessageId());
+		assertEquals("caps", ((CallResponse) msg).getResultList().get(0).getValue());
+
+		assertNull(cache.get(CallCache.key(call("rfr310", 2, 8)), 8, pool));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		cache.setTtl("rfr310.GetCapabilities", 0);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		CallCache cache = new CallCache(16);
+		Call call = call("rfr310", 1, 1);
+		cache.setTtl("rfr310.GetCapabilities", 20);
+		cache.put("rfr310.GetCapabilities", CallCache.key(call), response(call, "caps"));
+		assertNotNull(cache.get(CallCache.key(call), 1, pool));
+		Thread.sleep(50);
+		assertNull(cache.get(CallCache.key(call), 1, pool));
+	}
+
+	@Test
+	public void testEvict() {
+		CallCache cache = new CallCache(2);
+		cache.setTtl("rfr310.GetCapabilities", 60000);
+		for (int i = 0; i < 3; i++) {
+			Call call = call("rfr310", i, 1);
+			cache.put("rfr310.GetCapabilities", CallCache.key(call), response(call, i));
+		}
+		assertEquals(2, cache.getSize());
+		assertNull(cache.get(CallCache.key(call("rfr310", 0, 1)), 1, pool));
+		assertNotNull(cache.get(CallCache.key(call("rfr310", 2, 1)), 1, pool));
+	}
+}
@@ -0,0 +1,79 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CallExecutorTest {
+
+	@Test
+	public void testLimit() throws Exception {
+		CallExecutor executor = new CallExecutor(1, 1, false);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+
+		Runnable call = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+				done.countDown();
+			}
+		};
+
+		assertTrue(executor.execute(call));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertTrue(executor.execute(call));
+		assertEquals(1, executor.getActiveCount());
+		assertEquals(1, executor.getQueuedCount());
+
+		/* one running, one queued */
+		assertFalse(executor.execute(call));
+		assertEquals(1, executor.getRejectedCount());
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		/* accepted again once the pending calls completed */
+		final CountDownLatch next = new CountDownLatch(1);
+		long timeout = System.currentTimeMillis() + 5000;
+		while (executor.getActiveCount() > 0 && System.currentTimeMillis() < timeout)
+			Thread.sleep(10);
+		assertTrue(executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				next.countDown();
+			}
+		}));
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+		assertEquals(1, executor.getRejectedCount());
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		/* falls back to platform threads before JDK 21 */
+		CallExecutor executor = new CallExecutor(1, 0, true);
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		}));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConfiguration() {
+		new CallExecutor(0, 1, false);
+	}
+}
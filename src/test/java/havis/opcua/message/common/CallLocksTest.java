@@ -0,0 +1,117 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallLocksTest {
+
+	private CallLocks callLocks;
+
+	@Before
+	public void setup() {
+		callLocks = new CallLocks();
+		callLocks.setConcurrency("status", CallConcurrency.SHARED);
+		callLocks.setConcurrency("read", CallConcurrency.KEYED);
+	}
+
+	/**
+	 * @return true if a call of the method on the object can run while the
+	 *         current thread holds its locks
+	 */
+	private boolean canRun(final String methodId, final String objectId) throws InterruptedException {
+		final CountDownLatch locked = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				Lock[] locks = callLocks.lock(methodId, objectId);
+				locked.countDown();
+				callLocks.unlock(locks);
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return locked.await(100, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testConcurrency() {
+		assertEquals(CallConcurrency.EXCLUSIVE, callLocks.getConcurrency("scan"));
+		assertEquals(CallConcurrency.SHARED, callLocks.getConcurrency("status"));
+
+		callLocks.setDefaultConcurrency(CallConcurrency.SHARED);
+		assertEquals(CallConcurrency.SHARED, callLocks.getConcurrency("scan"));
+
+		callLocks.setConcurrency("read", null);
+		assertEquals(CallConcurrency.SHARED, callLocks.getConcurrency("read"));
+	}
+
+	@Test
+	public void testExclusive() throws Exception {
+		Lock[] locks = callLocks.lock("scan", "rfr310");
+		assertFalse(canRun("status", "rfr310"));
+		assertFalse(canRun("read", "tag1"));
+		callLocks.unlock(locks);
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		Lock[] locks = callLocks.lock("status", "rfr310");
+		assertTrue(canRun("status", "rfr310"));
+		assertTrue(canRun("read", "rfr310"));
+		callLocks.unlock(locks);
+	}
+
+	@Test
+	public void testKeyed() throws Exception {
+		Lock[] locks = callLocks.lock("read", "tag1");
+		assertTrue(canRun("status", "rfr310"));
+		assertFalse(canRun("read", "tag1"));
+		callLocks.unlock(locks);
+	}
+
+	@Test
+	public void testTryLock() throws Exception {
+		final Lock[] locks = callLocks.lock("read", "tag1");
+		final Lock[][] result = new Lock[1][];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = callLocks.tryLock("read", "tag1", 50);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		thread.start();
+		thread.join(1000);
+		/* the timeout elapsed, the locks acquired meanwhile are released */
+		assertNull(result[0]);
+		callLocks.unlock(locks);
+		assertTrue(canRun("scan", "rfr310"));
+
+		Lock[] acquired = callLocks.tryLock("read", "tag1", 50);
+		assertNotNull(acquired);
+		callLocks.unlock(acquired);
+
+		/* waiting without a timeout is interruptible */
+		Lock[] exclusive = callLocks.lock("scan", "rfr310");
+		Thread.currentThread().interrupt();
+		try {
+			callLocks.tryLock("status", "rfr310", Long.MAX_VALUE);
+			fail("Expected InterruptedException");
+		} catch (InterruptedException e) {
+		}
+		callLocks.unlock(exclusive);
+	}
+}
@@ -0,0 +1,80 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.Deadlines.Deadline;
+
+public class DeadlinesTest {
+
+	private static class Expiry implements Runnable {
+		final CountDownLatch expired = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			expired.countDown();
+		}
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		Deadlines deadlines = new Deadlines();
+		Expiry expiry = new Expiry();
+
+		Deadline deadline = deadlines.start(50, "slow", expiry);
+		try {
+			/* a blocking provider invocation */
+			Thread.sleep(5000);
+		} catch (InterruptedException e) {
+		}
+		assertTrue(expiry.expired.await(5, TimeUnit.SECONDS));
+		assertTrue(deadline.isExpired());
+		assertFalse(deadline.complete());
+		assertFalse(Thread.currentThread().isInterrupted());
+
+		assertEquals(1, deadlines.getTimeouts("slow"));
+		assertEquals(Long.valueOf(1), deadlines.getTimeouts().get("slow"));
+		assertEquals(0, deadlines.getTimeouts("fast"));
+	}
+
+	@Test
+	public void testExpireWithoutInterrupt() throws Exception {
+		Deadlines deadlines = new Deadlines();
+		deadlines.setInterrupt(false);
+		Expiry expiry = new Expiry();
+
+		Deadline deadline = deadlines.start(10, "slow", expiry);
+		assertTrue(expiry.expired.await(5, TimeUnit.SECONDS));
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertFalse(deadline.complete());
+	}
+
+	@Test
+	public void testComplete() throws Exception {
+		Deadlines deadlines = new Deadlines();
+		Expiry expiry = new Expiry();
+
+		Deadline deadline = deadlines.start(50, "fast", expiry);
+		assertTrue(deadline.complete());
+		assertFalse(expiry.expired.await(200, TimeUnit.MILLISECONDS));
+		assertFalse(deadline.isExpired());
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertEquals(0, deadlines.getTimeouts("fast"));
+	}
+
+	@Test
+	public void testNoTimeout() {
+		Deadlines deadlines = new Deadlines();
+		Deadline deadline = deadlines.start(0, "any", new Expiry());
+		assertSame(Deadlines.NONE, deadline);
+		assertFalse(deadline.isExpired());
+		assertTrue(deadline.complete());
+	}
+}
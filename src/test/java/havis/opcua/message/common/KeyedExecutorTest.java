@@ -0,0 +1,198 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class KeyedExecutorTest {
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(4);
+	private final KeyedExecutor executor = new KeyedExecutor(pool);
+
+	@After
+	public void cleanup() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testSameKeyInOrder() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(100);
+
+		for (int i = 0; i < 100; i++) {
+			final int n = i;
+			executor.execute("foo", new Runnable() {
+				@Override
+				public void run() {
+					order.add(n);
+					done.countDown();
+				}
+			});
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 100; i++)
+			assertEquals(i, (int) order.get(i));
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(0, executor.getActiveKeyCount());
+	}
+
+	@Test
+	public void testDifferentKeysInParallel() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+
+		executor.execute("slow", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		executor.execute("fast", new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+
+		/* completes while the slow key is still blocked */
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		blocked.countDown();
+	}
+
+	@Test
+	public void testFailingTask() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+
+		executor.execute("foo", new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("test");
+			}
+		});
+		executor.execute("foo", new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testMaxPending() throws Exception {
+		KeyedExecutor limited = new KeyedExecutor(pool, 2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+				done.countDown();
+			}
+		};
+
+		limited.execute("foo", task);
+		limited.execute("bar", task);
+		assertEquals(2, limited.getPendingCount());
+		try {
+			limited.execute("foo", task);
+			fail("Expected RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+		}
+		assertEquals(1, limited.getRejectedCount());
+
+		/* completed tasks make room for new ones */
+		blocked.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		final CountDownLatch next = new CountDownLatch(1);
+		for (int i = 0; i < 100 && limited.getPendingCount() > 0; i++)
+			Thread.sleep(10);
+		limited.execute("foo", new Runnable() {
+			@Override
+			public void run() {
+				next.countDown();
+			}
+		});
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+		assertEquals(1, limited.getRejectedCount());
+	}
+
+	@Test
+	public void testRejectedByExecutor() throws Exception {
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		KeyedExecutor keyed = new KeyedExecutor(single);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+		try {
+			keyed.execute("foo", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						blocked.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+					order.add(0);
+					done.countDown();
+				}
+			});
+			for (int i = 1; i < 3; i++) {
+				final int n = i;
+				keyed.execute("foo", new Runnable() {
+					@Override
+					public void run() {
+						order.add(n);
+						done.countDown();
+					}
+				});
+			}
+			single.shutdown();
+
+			/* the rejection of a new key is reported to the caller */
+			try {
+				keyed.execute("bar", new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+				fail("Expected RejectedExecutionException");
+			} catch (RejectedExecutionException e) {
+			}
+			assertEquals(1, keyed.getRejectedCount());
+			assertEquals(1, keyed.getActiveKeyCount());
+
+			/* tasks queued before the shutdown are not discarded */
+			blocked.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList(0, 1, 2), order);
+			for (int i = 0; i < 100 && keyed.getPendingCount() > 0; i++)
+				Thread.sleep(10);
+			assertEquals(0, keyed.getPendingCount());
+			assertEquals(0, keyed.getActiveKeyCount());
+		} finally {
+			single.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.ParamValue;
+
+public class LastSentValuesTest {
+
+	private final LastSentValues<String> lastSent = new LastSentValues<>();
+
+	@Test
+	public void testUpdate() {
+		assertTrue(lastSent.update("c1", "rssi", new ParamValue(-50)));
+		assertFalse(lastSent.update("c1", "rssi", new ParamValue(-50)));
+		assertTrue(lastSent.update("c1", "rssi", new ParamValue(-51)));
+		assertTrue(lastSent.update("c1", "rssi", new ParamValue(-50)));
+		/* other subscribers and parameters are independent */
+		assertTrue(lastSent.update("c2", "rssi", new ParamValue(-50)));
+		assertTrue(lastSent.update("c1", "power", new ParamValue(-50)));
+		assertEquals(1, lastSent.getSuppressed());
+
+		/* arrays and structs are compared by content */
+		assertTrue(lastSent.update("c1", "ids", new ParamValue(new Integer[] { 1, 2 })));
+		assertFalse(lastSent.update("c1", "ids", new ParamValue(new Integer[] { 1, 2 })));
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("@id", "ns=1;s=Status");
+		status.put("state", "idle");
+		assertTrue(lastSent.update("c1", "status", new ParamValue(status)));
+		assertFalse(lastSent.update("c1", "status", new ParamValue(new LinkedHashMap<>(status))));
+		status.put("state", "busy");
+		assertTrue(lastSent.update("c1", "status", new ParamValue(status)));
+		assertEquals(3, lastSent.getSuppressed());
+	}
+
+	@Test
+	public void testRemove() {
+		lastSent.update("c1", "rssi", new ParamValue(-50));
+		lastSent.update("c1", "rfr310.Rssi", new ParamValue(-50));
+		lastSent.update("c1", "rfr310.Power", new ParamValue(10));
+		lastSent.update("c2", "rssi", new ParamValue(-50));
+
+		/* the next value is sent regardless of a change */
+		lastSent.remove("c1", "rssi");
+		assertTrue(lastSent.update("c1", "rssi", new ParamValue(-50)));
+		assertFalse(lastSent.update("c2", "rssi", new ParamValue(-50)));
+
+		lastSent.remove("c1", "rfr310.*");
+		assertTrue(lastSent.update("c1", "rfr310.Rssi", new ParamValue(-50)));
+		assertTrue(lastSent.update("c1", "rfr310.Power", new ParamValue(10)));
+
+		lastSent.removeAll("c1");
+		assertTrue(lastSent.update("c1", "rssi", new ParamValue(-50)));
+		assertFalse(lastSent.update("c2", "rssi", new ParamValue(-50)));
+
+		lastSent.clear();
+		assertTrue(lastSent.update("c2", "rssi", new ParamValue(-50)));
+	}
+}
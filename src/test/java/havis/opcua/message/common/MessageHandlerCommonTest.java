@@ -21,23 +21,35 @@ import havis.opcua.message.common.model.ParamValue;
 import havis.opcua.message.common.model.Read;
 import havis.opcua.message.common.model.ReadResponse;
 import havis.opcua.message.common.model.Status;
+import havis.opcua.message.common.model.Struct;
 import havis.opcua.message.common.model.Subscribe;
 import havis.opcua.message.common.model.SubscribeResponse;
+import havis.opcua.message.common.model.SubscriptionFilter;
 import havis.opcua.message.common.model.Unsubscribe;
 import havis.opcua.message.common.model.UnsubscribeResponse;
 import havis.opcua.message.common.model.Write;
 import havis.opcua.message.common.model.WriteResponse;
+import havis.opcua.message.common.serialize.BufferAllocator;
 import havis.opcua.message.common.serialize.MessageDeserializer;
 import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.Connection;
 import havis.opcua.message.common.server.MessageServer;
 import havis.opcua.message.exception.NoSuchParameterException;
 import havis.opcua.message.exception.ParameterException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
@@ -261,7 +273,8 @@ public class MessageHandlerCommonTest {
 	@SuppressWarnings("unchecked")
 	public void testNotify(@Mocked final Notification notification, 
 			@Mocked final MessageServer msgServer, 
-			@Mocked MessageSerializer msgSer) throws IOException {
+			@Mocked MessageSerializer msgSer,
+			@Mocked final Connection connection) throws IOException {
 		
 		/*
 		 * Test: 
@@ -275,14 +288,33 @@ public class MessageHandlerCommonTest {
 		
 		final Map<String, Object> map = new HashMap<>();
 		map.put("foo", "bar");
+
+		/*
+		 * Test:
+		 * - notify call without subscribers
+		 * Expected:
+		 * - nothing is serialized and submitted
+		 */
+
+		mhc.notify(map);
+
+		new Verifications() {{
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
+			times = 0;
+			msgServer.submit((Collection<Connection>)any, (ByteBuffer)any, anyBoolean);
+			times = 0;
+		}};
+
+		SubscriptionRegistry<Connection> subscriptions = getField(mhc, "subscriptions");
+		subscriptions.add("foo", connection);
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
-			result = new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd };		
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
+			result = ByteBuffer.wrap(new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd });		
 		}};
 		
 		final ByteBuffer bb = 
-			ByteBuffer.wrap(MessageSerializer.serialize(notification));
+			MessageSerializer.serialize(notification, (BufferAllocator)null);
 		
 		mhc.notify(map);
 		
@@ -291,8 +323,11 @@ public class MessageHandlerCommonTest {
 			notification.setUntypedParamMap(map2 = withCapture());
 			assertEquals(map, map2);
 			
+			final Collection<Connection> recipients;
 			final ByteBuffer bb2; 					
-			msgServer.submit(bb2 = withCapture());
+			msgServer.submit(recipients = withCapture(), bb2 = withCapture(), true);
+			
+			assertEquals(Collections.singletonList(connection), recipients);
 			
 			assertArrayEquals(bb.array(), bb2.array());			
 		}}; 
@@ -307,7 +342,7 @@ public class MessageHandlerCommonTest {
 		 */
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
 			result = new Exception();
 		}};
 		
@@ -315,7 +350,7 @@ public class MessageHandlerCommonTest {
 		catch (Exception ex) { fail("Unexpected exception"); }
 		
 		new Verifications() {{
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((Collection<Connection>)any, (ByteBuffer)any, anyBoolean);
 			times = 0;
 		}};
 		
@@ -327,10 +362,10 @@ public class MessageHandlerCommonTest {
 		 */
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
-			result = new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd };
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
+			result = ByteBuffer.wrap(new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd });
 			
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((Collection<Connection>)any, (ByteBuffer)any, anyBoolean);
 			result = new Exception();
 		}};
 		
@@ -353,7 +388,7 @@ public class MessageHandlerCommonTest {
 		catch (Exception ex) { fail("Unexpected exception"); }
 		
 		new Verifications() {{
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((Collection<Connection>)any, (ByteBuffer)any, anyBoolean);
 			times = 0;
 		}};
 	}
@@ -383,12 +418,12 @@ public class MessageHandlerCommonTest {
 		map.put("foo", "bar");
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
-			result = new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd };		
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
+			result = ByteBuffer.wrap(new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd });		
 		}};
 		
 		final ByteBuffer bb = 
-			ByteBuffer.wrap(MessageSerializer.serialize(event));
+			MessageSerializer.serialize(event, (BufferAllocator)null);
 		
 		mhc.event(eventId, paramId, timestamp, severity, message, map);
 		
@@ -413,7 +448,7 @@ public class MessageHandlerCommonTest {
 			assertEquals(map, map2);
 			
 			final ByteBuffer bb2; 					
-			msgServer.submit(bb2 = withCapture());
+			msgServer.submit(bb2 = withCapture(), true);
 			
 			assertArrayEquals(bb.array(), bb2.array());			
 		}}; 
@@ -427,7 +462,7 @@ public class MessageHandlerCommonTest {
 		 */
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
 			result = new Exception();
 		}};
 		
@@ -435,7 +470,7 @@ public class MessageHandlerCommonTest {
 		catch (Exception ex) { fail("Unexpected exception"); }
 		
 		new Verifications() {{
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((ByteBuffer)any, anyBoolean);
 			times = 0;
 		}};
 		
@@ -447,10 +482,10 @@ public class MessageHandlerCommonTest {
 		 */
 		
 		new NonStrictExpectations() {{
-			MessageSerializer.serialize((Message)any);
-			result = new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd };
+			MessageSerializer.serialize((Message)any, (BufferAllocator)any);
+			result = ByteBuffer.wrap(new byte[] { (byte)0xaa, (byte)0xbb, (byte)0xcc, (byte)0xdd });
 			
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((ByteBuffer)any, anyBoolean);
 			result = new Exception();
 		}};
 		
@@ -473,11 +508,27 @@ public class MessageHandlerCommonTest {
 		catch (Exception ex) { fail("Unexpected exception"); }
 		
 		new Verifications() {{
-			msgServer.submit((ByteBuffer)any);
+			msgServer.submit((ByteBuffer)any, anyBoolean);
 			times = 0;
 		}};
 	}
 
+	/**
+	 * Waits until the requests dispatched for the parameter of the test
+	 * messages have been answered
+	 */
+	private static void awaitDispatched(MessageHandlerCommon mhc) throws InterruptedException {
+		KeyedExecutor dispatcher = getField(mhc, "dispatcher");
+		final CountDownLatch done = new CountDownLatch(1);
+		dispatcher.execute("rfr310.test", new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+	}
+
 	@Test
 	public void testReceived(@Mocked final DataProvider provider, 
 			@Mocked final MessageHeader mHdr, 
@@ -489,7 +540,8 @@ public class MessageHandlerCommonTest {
 			@Mocked final Subscribe subscribe, 
 			@Mocked final Unsubscribe unsubscribe,
 			@Mocked final Call call, 
-			@Mocked final ParameterException paramException) throws ParameterException {
+			@Mocked final Connection connection,
+			@Mocked final ParameterException paramException) throws ParameterException, InterruptedException {
 
 		MessageHandlerCommon mhc = new MessageHandlerCommon();
 		
@@ -535,11 +587,12 @@ public class MessageHandlerCommonTest {
 			
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof ReadResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((ReadResponse)msg).getStatus());
@@ -559,11 +612,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.WRITE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof WriteResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((WriteResponse)msg).getStatus());
@@ -583,11 +637,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.SUBSCRIBE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof SubscribeResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((SubscribeResponse)msg).getStatus());
@@ -607,11 +662,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.UNSUBSCRIBE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof UnsubscribeResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((UnsubscribeResponse)msg).getStatus());
@@ -631,11 +687,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.CALL;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof CallResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((CallResponse)msg).getStatus());
@@ -658,11 +715,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.READ;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof ReadResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((ReadResponse)msg).getStatus());
@@ -685,11 +743,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.WRITE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof WriteResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((WriteResponse)msg).getStatus());
@@ -712,11 +771,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.SUBSCRIBE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof SubscribeResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((SubscribeResponse)msg).getStatus());
@@ -739,11 +799,12 @@ public class MessageHandlerCommonTest {
 			result = MessageType.UNSUBSCRIBE;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof UnsubscribeResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((UnsubscribeResponse)msg).getStatus());
@@ -766,14 +827,15 @@ public class MessageHandlerCommonTest {
 			result = MessageType.CALL;						
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		try { Thread.sleep(20); } 
 		catch (InterruptedException e) { }
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof CallResponse);
 			assertEquals(Status.INVALID_MESSAGE, ((CallResponse)msg).getStatus());
@@ -801,11 +863,12 @@ public class MessageHandlerCommonTest {
 			result = new IllegalArgumentException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof ReadResponse);
 			assertEquals(Status.INVALID_PARAM_TYPE, ((ReadResponse)msg).getStatus());
@@ -830,11 +893,12 @@ public class MessageHandlerCommonTest {
 			result = new NoSuchParameterException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof ReadResponse);
 			assertEquals(Status.INVALID_PARAMETER, ((ReadResponse)msg).getStatus());
@@ -859,11 +923,12 @@ public class MessageHandlerCommonTest {
 			result = paramException;
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof ReadResponse);
 			assertEquals(Status.INVALID_PARAM_VALUE, ((ReadResponse)msg).getStatus());
@@ -888,11 +953,12 @@ public class MessageHandlerCommonTest {
 			result = new NoSuchParameterException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof WriteResponse);
 			assertEquals(Status.INVALID_PARAMETER, ((WriteResponse)msg).getStatus());
@@ -917,11 +983,12 @@ public class MessageHandlerCommonTest {
 			result = paramException;
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof WriteResponse);
 			assertEquals(Status.INVALID_PARAM_VALUE, ((WriteResponse)msg).getStatus());
@@ -946,11 +1013,12 @@ public class MessageHandlerCommonTest {
 			result = new NoSuchParameterException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof SubscribeResponse);
 			assertEquals(Status.INVALID_PARAMETER, ((SubscribeResponse)msg).getStatus());
@@ -975,11 +1043,12 @@ public class MessageHandlerCommonTest {
 			result = paramException;
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof SubscribeResponse);
 			assertEquals(Status.INVALID_PARAM_VALUE, ((SubscribeResponse)msg).getStatus());
@@ -1004,11 +1073,12 @@ public class MessageHandlerCommonTest {
 			result = new NoSuchParameterException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof UnsubscribeResponse);
 			assertEquals(Status.INVALID_PARAMETER, ((UnsubscribeResponse)msg).getStatus());
@@ -1033,11 +1103,12 @@ public class MessageHandlerCommonTest {
 			result = paramException;
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		awaitDispatched(mhc);
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof UnsubscribeResponse);
 			assertEquals(Status.INVALID_PARAM_VALUE, ((UnsubscribeResponse)msg).getStatus());
@@ -1062,12 +1133,12 @@ public class MessageHandlerCommonTest {
 			result = new NoSuchParameterException();
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
 		try { Thread.sleep(20); } catch(Exception ex) {}
 		
 		new Verifications() {{ 			
 			Message msg;			
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof CallResponse);
 			assertEquals(Status.INVALID_PARAMETER, ((CallResponse)msg).getStatus());
@@ -1093,12 +1164,12 @@ public class MessageHandlerCommonTest {
 			result = paramException;
 		}};
 		
-		mhc.received(mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
+		mhc.received(connection, mHdr, ByteBuffer.wrap(new byte[] { 0x11, 0x22, 0x33, 0x44 }));
 		try { Thread.sleep(20); } catch(Exception ex) {}
 		
 		new Verifications() {{ 			
 			Message msg;
-			MessageSerializer.serialize(msg = withCapture());			
+			MessageSerializer.serialize(msg = withCapture(), (BufferAllocator) any);			
 			
 			assertTrue(msg instanceof CallResponse);
 			assertEquals(Status.INVALID_PARAM_VALUE, ((CallResponse)msg).getStatus());
@@ -1109,6 +1180,454 @@ public class MessageHandlerCommonTest {
 		
 	}
 
+	/**
+	 * Data provider blocking reads until they are released
+	 */
+	static class BlockingProvider implements DataProvider {
+		final Map<String, Object> values = new ConcurrentHashMap<>();
+		final List<String> invocations = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile ParameterException error;
+
+		@Override
+		public Object read(String id) throws ParameterException {
+			invocations.add("read " + id);
+			reading.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (error != null)
+				throw error;
+			return values.get(id);
+		}
+
+		@Override
+		public void write(String id, Object value) throws ParameterException {
+			invocations.add("write " + id + "=" + value);
+			values.put(id, value);
+		}
+
+		@Override
+		public void subscribe(String id) throws ParameterException {
+			invocations.add("subscribe " + id);
+		}
+
+		@Override
+		public void unsubscribe(String id) throws ParameterException {
+			invocations.add("unsubscribe " + id);
+		}
+
+		@Override
+		public Object[] call(String methodId, String paramId, Object[] params) throws ParameterException {
+			invocations.add("call " + methodId);
+			return new Object[0];
+		}
+	}
+
+	private static void awaitCoalescedReads(MessageHandlerCommon mhc, long count) throws InterruptedException {
+		for (int i = 0; i < 100 && mhc.getCoalescedReads() < count; i++)
+			Thread.sleep(10);
+		assertEquals(count, mhc.getCoalescedReads());
+	}
+
+	private static ReadResponse receiveRead(TestClient client, int messageId, Status status) throws IOException {
+		Message msg = client.receive();
+		assertTrue(msg.toString(), msg instanceof ReadResponse);
+		assertEquals(messageId, msg.getMessageHeader().getMessageId());
+		assertEquals(status, ((ReadResponse) msg).getStatus());
+		return (ReadResponse) msg;
+	}
+
+	/**
+	 * @return the value of the single parameter of the next notification
+	 */
+	private static Object receiveNotification(TestClient client, String id) throws IOException {
+		Message msg = client.receive();
+		assertTrue(msg.toString(), msg instanceof Notification);
+		Map<ParamId, ParamValue> params = ((Notification) msg).getParamMap();
+		assertEquals(1, params.size());
+		Map.Entry<ParamId, ParamValue> param = params.entrySet().iterator().next();
+		assertEquals(id, param.getKey().<Object> getValue());
+		return param.getValue().<Object> getValue();
+	}
+
+	private static void subscribe(TestClient client, String id, int messageId) throws IOException {
+		client.send(new Subscribe(new ParamId(id, true), messageId));
+		Message msg = client.receive();
+		assertTrue(msg.toString(), msg instanceof SubscribeResponse);
+		assertEquals(messageId, msg.getMessageHeader().getMessageId());
+		assertEquals(Status.SUCCESS, ((SubscribeResponse) msg).getStatus());
+	}
+
+	@Test
+	public void testMultipleClients() throws Exception {
+		
+		/*
+		 * Test:
+		 * - requests and subscriptions of two clients with a limit of two 
+		 *   connections
+		 * Expected:
+		 * - responses are sent to the requesting client only
+		 * - notifications are sent to the subscribed client only
+		 * - a third client is rejected
+		 * - the subscriptions of a client are kept when another client 
+		 *   disconnects
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		provider.release.countDown();
+		int port = TestClient.freePort();
+		System.setProperty("havis.opcua.message.MessageHandler.maxConnections", "2");
+		MessageHandlerCommon mhc;
+		try {
+			mhc = TestClient.open(port, provider);
+		} finally {
+			System.clearProperty("havis.opcua.message.MessageHandler.maxConnections");
+		}
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			/* responses */
+			c1.send(new Read(new ParamId("temp", true), 1));
+			receiveRead(c1, 1, Status.SUCCESS);
+			c2.send(new Read(new ParamId("temp", true), 2));
+			receiveRead(c2, 2, Status.SUCCESS);
+			assertNull(c1.poll(100));
+
+			/* connection limit */
+			try (TestClient c3 = new TestClient(port)) {
+				assertTrue(c3.isClosed());
+			}
+
+			/* notifications */
+			subscribe(c1, "temp", 3);
+			subscribe(c2, "hum", 4);
+			mhc.notify(Collections.<String, Object> singletonMap("temp", 21));
+			assertEquals(21, receiveNotification(c1, "temp"));
+			mhc.notify(Collections.<String, Object> singletonMap("hum", 50));
+			assertEquals(50, receiveNotification(c2, "hum"));
+			assertNull(c1.poll(100));
+			assertNull(c2.poll(10));
+
+			/* disconnect */
+			subscribe(c2, "temp", 5);
+			c1.close();
+			MessageServer msgServer = getField(mhc, "msgServer");
+			for (int i = 0; i < 100 && msgServer.getConnections().size() > 1; i++)
+				Thread.sleep(10);
+			assertEquals(1, msgServer.getConnections().size());
+			mhc.notify(Collections.<String, Object> singletonMap("temp", 22));
+			assertEquals(22, receiveNotification(c2, "temp"));
+			mhc.notify(Collections.<String, Object> singletonMap("hum", 51));
+			assertEquals(51, receiveNotification(c2, "hum"));
+			assertTrue(provider.invocations.toString(), !provider.invocations.contains("unsubscribe temp"));
+			assertTrue(provider.invocations.toString(), !provider.invocations.contains("unsubscribe *"));
+		} finally {
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testFilteredInitialValue() throws Exception {
+		
+		/*
+		 * Test:
+		 * - subscription with an aggregate filter of a sampled parameter 
+		 *   already subscribed by another client
+		 * Expected:
+		 * - the unchanged value is aggregated for the new subscription 
+		 *   instead of being sent unfiltered
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		provider.release.countDown();
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		mhc.setPollInterval(50);
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			subscribe(c1, "temp", 1);
+			assertEquals(20, receiveNotification(c1, "temp"));
+
+			c2.send(new Subscribe(new ParamId("temp", true), Arrays.asList(
+					new SubscriptionFilter(SubscriptionFilter.Type.AGGREGATE, new ParamValue(300))), 2));
+			Message msg = c2.receive();
+			assertTrue(msg.toString(), msg instanceof SubscribeResponse);
+			assertEquals(Status.SUCCESS, ((SubscribeResponse) msg).getStatus());
+			Object value = receiveNotification(c2, "temp");
+			assertTrue(String.valueOf(value), value instanceof Struct);
+			assertNull(c1.poll(10));
+		} finally {
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testSampledWildcard() throws Exception {
+		
+		/*
+		 * Test:
+		 * - wildcard subscription of a data provider which does not notify 
+		 *   changes
+		 * Expected:
+		 * - the subscription is rejected with INVALID_PARAMETER
+		 * - the data provider is not invoked
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.release.countDown();
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		mhc.setPollInterval(50);
+		try (TestClient c1 = new TestClient(port)) {
+			c1.send(new Subscribe(new ParamId("rfr310.*", true), 1));
+			Message msg = c1.receive();
+			assertTrue(msg.toString(), msg instanceof SubscribeResponse);
+			assertEquals(1, msg.getMessageHeader().getMessageId());
+			assertEquals(Status.INVALID_PARAMETER, ((SubscribeResponse) msg).getStatus());
+			assertTrue(provider.invocations.isEmpty());
+
+			/* parameters are sampled */
+			subscribe(c1, "rfr310.temp", 2);
+			assertEquals(Collections.singletonList("subscribe rfr310.temp"), provider.invocations.subList(0, 1));
+		} finally {
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testSharedRead() throws Exception {
+		
+		/*
+		 * Test:
+		 * - concurrent reads of a parameter by two clients
+		 * Expected:
+		 * - the data provider is invoked once
+		 * - each request is answered with its own message ID
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c2.send(new Read(new ParamId("temp", true), 2));
+			c1.send(new Read(new ParamId("temp", true), 3));
+			awaitCoalescedReads(mhc, 2);
+			provider.release.countDown();
+
+			assertEquals(20, receiveRead(c1, 1, Status.SUCCESS).getResult().<Object> getValue());
+			assertEquals(20, receiveRead(c1, 3, Status.SUCCESS).getResult().<Object> getValue());
+			assertEquals(20, receiveRead(c2, 2, Status.SUCCESS).getResult().<Object> getValue());
+			assertEquals(Collections.singletonList("read temp"), provider.invocations);
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testSharedReadAfterWrite() throws Exception {
+		
+		/*
+		 * Test:
+		 * - read of a parameter while a read is pending which has been 
+		 *   received after a write of the parameter
+		 * Expected:
+		 * - the read does not join the pending read 
+		 * - the data provider is invoked again after the write
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		try (TestClient c1 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(25), 2));
+			c1.send(new Read(new ParamId("temp", true), 3));
+			Thread.sleep(100);
+			provider.release.countDown();
+
+			assertEquals(20, receiveRead(c1, 1, Status.SUCCESS).getResult().<Object> getValue());
+			Message msg = c1.receive();
+			assertTrue(msg.toString(), msg instanceof WriteResponse);
+			assertEquals(Status.SUCCESS, ((WriteResponse) msg).getStatus());
+			assertEquals(25, receiveRead(c1, 3, Status.SUCCESS).getResult().<Object> getValue());
+			assertEquals(0, mhc.getCoalescedReads());
+			assertEquals(Arrays.asList("read temp", "write temp=25", "read temp"), provider.invocations);
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testSharedReadFailed() throws Exception {
+		
+		/*
+		 * Test:
+		 * - concurrent reads of a parameter failing in the data provider
+		 * Expected:
+		 * - each request is answered with the status of the failure
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.error = new NoSuchParameterException();
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c2.send(new Read(new ParamId("temp", true), 2));
+			c1.send(new Read(new ParamId("temp", true), 3));
+			awaitCoalescedReads(mhc, 2);
+			provider.release.countDown();
+
+			receiveRead(c1, 1, Status.INVALID_PARAMETER);
+			receiveRead(c1, 3, Status.INVALID_PARAMETER);
+			receiveRead(c2, 2, Status.INVALID_PARAMETER);
+			assertEquals(1, provider.invocations.size());
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
+	/**
+	 * Receives responses of a client by message ID
+	 */
+	private static Map<Integer, Message> receive(TestClient client, int count) throws IOException {
+		Map<Integer, Message> responses = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			Message msg = client.receive();
+			responses.put(msg.getMessageHeader().getMessageId(), msg);
+		}
+		return responses;
+	}
+
+	private static void assertWritten(Map<Integer, Message> responses, int messageId, Status status) {
+		Message msg = responses.get(messageId);
+		assertTrue(String.valueOf(msg), msg instanceof WriteResponse);
+		assertEquals(status, ((WriteResponse) msg).getStatus());
+	}
+
+	@Test
+	public void testCoalescedWrites() throws Exception {
+		
+		/*
+		 * Test:
+		 * - three writes of a parameter queued behind a pending read 
+		 *   with coalescing of writes enabled
+		 * Expected:
+		 * - the data provider is invoked once with the last value
+		 * - the earlier writes are answered with status SUPERSEDED
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		mhc.setCoalesceWrites(true);
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(21), 2));
+			c2.send(new Write(new ParamId("temp", true), new ParamValue(22), 3));
+			for (int i = 0; i < 100 && mhc.getCoalescedWrites() < 1; i++)
+				Thread.sleep(10);
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(23), 4));
+			for (int i = 0; i < 100 && mhc.getCoalescedWrites() < 2; i++)
+				Thread.sleep(10);
+			provider.release.countDown();
+
+			Map<Integer, Message> responses = receive(c1, 3);
+			assertWritten(responses, 2, Status.SUPERSEDED);
+			assertWritten(responses, 4, Status.SUCCESS);
+			assertTrue(responses.get(1) instanceof ReadResponse);
+			assertWritten(receive(c2, 1), 3, Status.SUPERSEDED);
+			assertEquals(2, mhc.getCoalescedWrites());
+			assertEquals(Arrays.asList("read temp", "write temp=23"), provider.invocations);
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testWritesNotCoalesced() throws Exception {
+		
+		/*
+		 * Test:
+		 * - three writes of a parameter queued behind a pending read 
+		 *   with coalescing of writes disabled
+		 * Expected:
+		 * - the data provider is invoked for each write in order
+		 * - each write is answered with status SUCCESS
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		try (TestClient c1 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(21), 2));
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(22), 3));
+			c1.send(new Write(new ParamId("temp", true), new ParamValue(23), 4));
+			Thread.sleep(100);
+			provider.release.countDown();
+
+			Map<Integer, Message> responses = receive(c1, 4);
+			assertWritten(responses, 2, Status.SUCCESS);
+			assertWritten(responses, 3, Status.SUCCESS);
+			assertWritten(responses, 4, Status.SUCCESS);
+			assertEquals(0, mhc.getCoalescedWrites());
+			assertEquals(Arrays.asList("read temp", "write temp=21", "write temp=22", "write temp=23"),
+					provider.invocations);
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
+	@Test
+	public void testSharedReadTimeout() throws Exception {
+		
+		/*
+		 * Test:
+		 * - concurrent reads of a parameter exceeding the read timeout
+		 * Expected:
+		 * - each request is answered with status TIMEOUT
+		 */
+		
+		BlockingProvider provider = new BlockingProvider();
+		provider.values.put("temp", 20);
+		int port = TestClient.freePort();
+		MessageHandlerCommon mhc = TestClient.open(port, provider);
+		mhc.setReadTimeout(300);
+		try (TestClient c1 = new TestClient(port); TestClient c2 = new TestClient(port)) {
+			c1.send(new Read(new ParamId("temp", true), 1));
+			assertTrue(provider.reading.await(1, TimeUnit.SECONDS));
+			c2.send(new Read(new ParamId("temp", true), 2));
+			awaitCoalescedReads(mhc, 1);
+
+			receiveRead(c1, 1, Status.TIMEOUT);
+			receiveRead(c2, 2, Status.TIMEOUT);
+			assertNull(c1.poll(200));
+			assertNull(c2.poll(10));
+		} finally {
+			provider.release.countDown();
+			mhc.close();
+		}
+	}
+
 //	@Test
 //	public void testSent() {
 //		fail("Not yet implemented");
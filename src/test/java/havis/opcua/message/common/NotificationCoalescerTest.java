@@ -0,0 +1,153 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+
+public class NotificationCoalescerTest {
+
+	private final LinkedBlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+	private final NotificationCoalescer<String> coalescer = new NotificationCoalescer<>(
+			new NotificationCoalescer.Sender<String>() {
+				@Override
+				public void send(Collection<String> recipients, Map<ParamId, ParamValue> params) {
+					StringBuilder values = new StringBuilder();
+					for (Map.Entry<ParamId, ParamValue> e : params.entrySet())
+						values.append(values.length() == 0 ? "" : ", ").append(e.getKey().<Object> getValue())
+								.append('=').append(e.getValue().<Object> getValue());
+					sent.add(new TreeSet<>(recipients) + ":{" + values + "}");
+				}
+			}, TimeUnit.MILLISECONDS.toMicros(100), 1024);
+
+	private static Map<ParamId, ParamValue> params(Object... keysAndValues) {
+		Map<ParamId, ParamValue> params = new LinkedHashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2)
+			params.put(new ParamId((String) keysAndValues[i], true), new ParamValue(keysAndValues[i + 1]));
+		return params;
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+		assertTrue(coalescer.isEnabled());
+		coalescer.add(Collections.singletonList("c1"), params("rssi", -50));
+		coalescer.add(Collections.singletonList("c1"), params("power", 10));
+		coalescer.add(Collections.singletonList("c1"), params("rssi", -52, "temp", 20));
+		assertNull(sent.poll(50, TimeUnit.MILLISECONDS));
+
+		/* the latest value of a parameter is sent at the end of the window */
+		assertEquals("[c1]:{rssi=-52, power=10, temp=20}", sent.poll(1, TimeUnit.SECONDS));
+		assertEquals(1, coalescer.getSuperseded());
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+
+		/* the next value opens a new window */
+		coalescer.add(Collections.singletonList("c1"), params("rssi", -53));
+		assertEquals("[c1]:{rssi=-53}", sent.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRecipients() throws Exception {
+		Map<ParamId, ParamValue> shared = params("rssi", -50);
+		coalescer.add(Arrays.asList("c1", "c2", "c3"), shared);
+		coalescer.add(Collections.singletonList("c3"), params("power", 10));
+
+		/* recipients with the same values share one notification */
+		String first = sent.poll(1, TimeUnit.SECONDS);
+		String second = sent.poll(1, TimeUnit.SECONDS);
+		assertEquals(new TreeSet<>(Arrays.asList("[c1, c2]:{rssi=-50}", "[c3]:{rssi=-50, power=10}")),
+				new TreeSet<>(Arrays.asList(first, second)));
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+
+		/* the values of a removed recipient are discarded */
+		coalescer.add(Arrays.asList("c1", "c2"), shared);
+		coalescer.remove("c1");
+		assertEquals("[c2]:{rssi=-50}", sent.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		char[] chars = new char[400];
+		Arrays.fill(chars, 'x');
+		String value = new String(chars);
+
+		coalescer.add(Collections.singletonList("c1"), params("a", value));
+		coalescer.add(Collections.singletonList("c1"), params("b", value));
+		assertNull(sent.poll(20, TimeUnit.MILLISECONDS));
+		/* a replaced value does not count twice */
+		coalescer.add(Collections.singletonList("c1"), params("b", value));
+		assertNull(sent.poll(20, TimeUnit.MILLISECONDS));
+
+		/* the limit is reached, the values are sent before the window has elapsed */
+		coalescer.add(Collections.singletonList("c1"), params("c", value));
+		String s = sent.poll(20, TimeUnit.MILLISECONDS);
+		assertTrue(s, s.startsWith("[c1]:{a=x"));
+		assertTrue(s, s.contains(", c=x"));
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testDisable() throws Exception {
+		coalescer.add(Collections.singletonList("c1"), params("rssi", -50));
+		/* the values collected so far are sent if the window is disabled */
+		coalescer.setWindow(0);
+		assertFalse(coalescer.isEnabled());
+		assertEquals("[c1]:{rssi=-50}", sent.poll(20, TimeUnit.MILLISECONDS));
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testSendUnlocked() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final NotificationCoalescer<String> blocking = new NotificationCoalescer<>(
+				new NotificationCoalescer.Sender<String>() {
+					@Override
+					public void send(Collection<String> recipients, Map<ParamId, ParamValue> params) {
+						sending.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						sent.add(recipients + ":" + params.keySet().iterator().next().<Object> getValue());
+					}
+				}, TimeUnit.MILLISECONDS.toMicros(10), 1024);
+
+		blocking.add(Collections.singletonList("c1"), params("rssi", -50));
+		assertTrue(sending.await(1, TimeUnit.SECONDS));
+
+		/* values are collected while a notification is sent */
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				blocking.add(Collections.singletonList("c1"), params("power", 10));
+				blocking.flush();
+			}
+		});
+		thread.start();
+		thread.join(1000);
+		assertFalse(thread.isAlive());
+
+		/* and sent in order by the sending thread */
+		release.countDown();
+		assertEquals("[c1]:rssi", sent.poll(1, TimeUnit.SECONDS));
+		assertEquals("[c1]:power", sent.poll(1, TimeUnit.SECONDS));
+		assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+	}
+}
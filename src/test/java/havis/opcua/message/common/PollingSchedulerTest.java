@@ -0,0 +1,159 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.SubscriptionFilter;
+import havis.opcua.message.common.model.SubscriptionFilter.Type;
+
+public class PollingSchedulerTest {
+
+	private final Map<String, Object> values = new ConcurrentHashMap<>();
+	private final LinkedBlockingQueue<String> read = new LinkedBlockingQueue<>();
+	private final LinkedBlockingQueue<Map<String, Object>> changed = new LinkedBlockingQueue<>();
+	private final LinkedBlockingQueue<String> initial = new LinkedBlockingQueue<>();
+
+	private final PollingScheduler<String> polling = new PollingScheduler<>(new PollingScheduler.Source<String>() {
+		@Override
+		public CompletionStage<Object> read(ParamId paramId, String id) {
+			read.add(id);
+			Object value = values.get(id);
+			if (value == null) {
+				CompletableFuture<Object> future = new CompletableFuture<>();
+				future.completeExceptionally(new IllegalStateException("No value: " + id));
+				return future;
+			}
+			return CompletableFuture.completedFuture(value);
+		}
+
+		@Override
+		public void changed(Map<String, Object> values) {
+			changed.add(new TreeMap<>(values));
+		}
+
+		@Override
+		public void initial(String subscriber, String id, Object value) {
+			initial.add(subscriber + ":" + id + "=" + value);
+		}
+	});
+
+	private static ParamId paramId(String id) {
+		return new ParamId(id, true);
+	}
+
+	@Test
+	public void testGetSamplingInterval() {
+		assertEquals(0, PollingScheduler.getSamplingInterval(null));
+		assertEquals(0, PollingScheduler.getSamplingInterval(
+				Collections.singletonList(new SubscriptionFilter(Type.MIN_INTERVAL, new ParamValue(100)))));
+		assertEquals(250, PollingScheduler.getSamplingInterval(
+				Arrays.asList(new SubscriptionFilter(Type.MIN_INTERVAL, new ParamValue(100)),
+						new SubscriptionFilter(Type.SAMPLING_INTERVAL, new ParamValue(250)))));
+		/* the sampling interval alone is no filter */
+		assertNull(SubscriptionFilters.create(
+				Collections.singletonList(new SubscriptionFilter(Type.SAMPLING_INTERVAL, new ParamValue(250)))));
+	}
+
+	@Test
+	public void testChanged() throws Exception {
+		values.put("temp", 20);
+		values.put("rssi", -50);
+		polling.add("temp", paramId("temp"), 50, "c1");
+		polling.add("rssi", paramId("rssi"), 50, "c1");
+		assertEquals(2, polling.size());
+
+		/* the first values are passed on in one map */
+		Map<String, Object> map = changed.poll(1, TimeUnit.SECONDS);
+		if (map.size() < 2)
+			map.putAll(changed.poll(1, TimeUnit.SECONDS));
+		assertEquals("{rssi=-50, temp=20}", map.toString());
+
+		/* unchanged values are not passed on */
+		assertNull(changed.poll(200, TimeUnit.MILLISECONDS));
+
+		values.put("rssi", -55);
+		assertEquals("{rssi=-55}", changed.poll(1, TimeUnit.SECONDS).toString());
+		assertNull(changed.poll(200, TimeUnit.MILLISECONDS));
+
+		/* a new subscriber gets the current value, the others are not notified again */
+		polling.add("temp", paramId("temp"), 50, "c2");
+		assertEquals("c2:temp=20", initial.poll(1, TimeUnit.SECONDS));
+		assertNull(initial.poll(200, TimeUnit.MILLISECONDS));
+		assertNull(changed.poll(10, TimeUnit.MILLISECONDS));
+
+		/* a new subscriber gets a changed value with the others */
+		polling.add("rssi", paramId("rssi"), 50, "c2");
+		values.put("rssi", -60);
+		assertEquals("{rssi=-60}", changed.poll(1, TimeUnit.SECONDS).toString());
+		assertNull(initial.poll(200, TimeUnit.MILLISECONDS));
+		assertNull(changed.poll(10, TimeUnit.MILLISECONDS));
+
+		polling.removeAll("c1");
+		polling.remove("temp", "c2");
+		polling.remove("rssi", "c2");
+		assertEquals(0, polling.size());
+		Thread.sleep(100);
+		read.clear();
+		assertNull(read.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testInterval() throws Exception {
+		values.put("temp", 20);
+		polling.add("temp", paramId("temp"), 500, "c1");
+		assertEquals(500, polling.getInterval("temp"));
+		/* the shortest requested interval applies */
+		polling.add("temp", paramId("temp"), 50, "c2");
+		assertEquals(50, polling.getInterval("temp"));
+		polling.add("temp", paramId("temp"), 100, "c3");
+		assertEquals(50, polling.getInterval("temp"));
+
+		read.clear();
+		Thread.sleep(300);
+		assertTrue(read.size() >= 3);
+
+		polling.remove("temp", "c2");
+		assertEquals(100, polling.getInterval("temp"));
+		polling.remove("temp", "c3");
+		assertEquals(500, polling.getInterval("temp"));
+		polling.remove("temp", "c1");
+		assertEquals(0, polling.getInterval("temp"));
+
+		try {
+			polling.add("temp", paramId("temp"), 0, "c1");
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFailedRead() throws Exception {
+		values.put("temp", 20);
+		polling.add("temp", paramId("temp"), 50, "c1");
+		polling.add("power", paramId("power"), 50, "c1");
+
+		/* failed reads are skipped */
+		assertEquals("{temp=20}", changed.poll(1, TimeUnit.SECONDS).toString());
+		assertNull(changed.poll(200, TimeUnit.MILLISECONDS));
+
+		values.put("power", 10);
+		assertEquals("{power=10}", changed.poll(1, TimeUnit.SECONDS).toString());
+		polling.removeAll("c1");
+	}
+}
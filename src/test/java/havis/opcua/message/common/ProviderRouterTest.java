@@ -0,0 +1,155 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.DataProvider;
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.exception.ParameterException;
+
+public class ProviderRouterTest {
+
+	private static class Provider implements DataProvider {
+		final String name;
+		final CountDownLatch release;
+
+		Provider(String name, CountDownLatch release) {
+			this.name = name;
+			this.release = release;
+		}
+
+		@Override
+		public Object read(String id) throws ParameterException {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+			return name + ":" + id + ":" + Thread.currentThread().getName();
+		}
+
+		@Override
+		public void write(String id, Object value) throws ParameterException {
+		}
+
+		@Override
+		public void subscribe(String id) throws ParameterException {
+		}
+
+		@Override
+		public void unsubscribe(String id) throws ParameterException {
+		}
+
+		@Override
+		public Object[] call(String methodId, String paramId, Object[] params) throws ParameterException {
+			return new Object[] { name };
+		}
+	}
+
+	private static class AsyncProvider extends Provider implements AsyncDataProvider {
+		AsyncProvider() {
+			super("async", new CountDownLatch(0));
+		}
+
+		@Override
+		public CompletionStage<Object> readAsync(String id) {
+			return CompletableFuture.<Object> completedFuture(id);
+		}
+
+		@Override
+		public CompletionStage<Void> writeAsync(String id, Object value) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public CompletionStage<Object[]> callAsync(String methodId, String paramId, Object[] params) {
+			return CompletableFuture.completedFuture(new Object[0]);
+		}
+	}
+
+	@Test
+	public void testRoute() {
+		ProviderRouter router = new ProviderRouter();
+		assertNull(router.route(new ParamId(2, "foo"), "foo"));
+
+		Provider ns2 = new Provider("ns2", new CountDownLatch(0));
+		Provider rfr = new Provider("rfr", new CountDownLatch(0));
+		router.addNamespace(2, ns2, 1);
+		router.addPrefix("rfr310", rfr, 1);
+
+		assertSame(ns2, router.route(new ParamId(2, "foo"), "foo").getProvider());
+		assertSame(ns2, router.route(new ParamId(2, 42), "#42").getProvider());
+		/* the namespace takes precedence */
+		assertSame(ns2, router.route(new ParamId(2, "rfr310.ScanStart"), "rfr310.ScanStart").getProvider());
+		assertSame(rfr, router.route(new ParamId(0, "rfr310.ScanStart"), "rfr310.ScanStart").getProvider());
+		assertSame(rfr, router.route(new ParamId(0, "rfr310"), "rfr310").getProvider());
+		assertSame(rfr, router.route("rfr310.ScanStop").getProvider());
+		assertNull(router.route(new ParamId(0, "rfr310x.foo"), "rfr310x.foo"));
+		assertNull(router.route(new ParamId(3, "foo"), "foo"));
+		assertNull(router.route(new ParamId("foo", false), "foo"));
+		/* parts of a prefix do not match */
+		assertNull(router.route("rfr.ScanStop"));
+		assertNull(router.route("rfr31"));
+		assertNull(router.route(".ScanStop"));
+		assertEquals(2, router.getRoutes().size());
+
+		/* a prefix of another prefix */
+		router.addPrefix("rfr", ns2, 1);
+		assertSame(ns2, router.route("rfr.ScanStop").getProvider());
+		assertSame(rfr, router.route("rfr310.ScanStop").getProvider());
+		assertEquals(3, router.getRoutes().size());
+
+		try {
+			router.addPrefix("a.b", rfr, 1);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			router.addNamespace(0x10000, rfr, 1);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testIsolation() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		ProviderRouter router = new ProviderRouter();
+		router.addNamespace(2, new Provider("slow", release), 1);
+		router.addNamespace(3, new Provider("fast", new CountDownLatch(0)), 1);
+
+		CompletableFuture<Object> slow = router.route(new ParamId(2, "a"), "a").getAsyncProvider().readAsync("a")
+				.toCompletableFuture();
+		CompletableFuture<Object> fast = router.route(new ParamId(3, "b"), "b").getAsyncProvider().readAsync("b")
+				.toCompletableFuture();
+
+		/* the fast provider completes while the slow one blocks */
+		assertEquals("fast:b:Provider-ns3-1", fast.get(5, TimeUnit.SECONDS));
+		assertFalse(slow.isDone());
+		assertEquals(1, router.route(new ParamId(2, "a"), "a").getPendingCount());
+
+		release.countDown();
+		assertEquals("slow:a:Provider-ns2-1", slow.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAsyncProvider() throws Exception {
+		ProviderRouter router = new ProviderRouter();
+		AsyncProvider provider = new AsyncProvider();
+		ProviderRouter.Route route = router.addPrefix("async", provider, 0);
+
+		assertSame(provider, route.getAsyncProvider());
+		assertEquals("async.foo", route.getAsyncProvider().readAsync("async.foo").toCompletableFuture().get());
+		assertTrue(route.toString().contains("async"));
+	}
+}
@@ -0,0 +1,116 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.Message;
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.Read;
+import havis.opcua.message.common.model.ReadResponse;
+import havis.opcua.message.common.model.Status;
+import havis.opcua.message.common.serialize.MessageDeserializer;
+import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.BufferPool;
+
+public class ReadCacheTest {
+
+	private final BufferPool pool = new BufferPool(false);
+
+	private static byte[] response(ParamId paramId, Object value) {
+		return MessageSerializer.serialize(new ReadResponse(new Read(paramId, 1), new ParamValue(value), Status.SUCCESS));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		ReadCache cache = new ReadCache(16);
+		ParamId foo = new ParamId(0, "foo");
+
+		/* not cached */
+		cache.put("foo", cache.version("foo"), foo, response(foo, "bar"));
+		assertNull(cache.get("foo", foo, 2, pool));
+
+		cache.setTtl("foo", 60000);
+		cache.put("foo", cache.version("foo"), foo, response(foo, "bar"));
+
+		ByteBuffer bb = cache.get("foo", foo, 42, pool);
+		assertNotNull(bb);
+		byte[] bytes = new byte[bb.remaining()];
+		bb.get(bytes);
+		Message msg = MessageDeserializer.deserialize(bytes);
+		assertEquals(42, msg.getMessageHeader().getMessageId());
+		assertEquals("bar", ((ReadResponse) msg).getResult().getValue());
+		assertEquals(foo, ((ReadResponse) msg).getParamId());
+
+		/* same ID in another namespace */
+		assertNull(cache.get("foo", new ParamId(2, "foo"), 43, pool));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		ReadCache cache = new ReadCache(16);
+		ParamId foo = new ParamId(0, "foo");
+		cache.setTtl("foo", 20);
+		cache.put("foo", cache.version("foo"), foo, response(foo, "bar"));
+		assertNotNull(cache.get("foo", foo, 1, pool));
+		Thread.sleep(50);
+		assertNull(cache.get("foo", foo, 2, pool));
+	}
+
+	@Test
+	public void testInvalidate() {
+		ReadCache cache = new ReadCache(16);
+		ParamId foo = new ParamId(0, "foo");
+		cache.setTtl("foo", 60000);
+		cache.put("foo", cache.version("foo"), foo, response(foo, "bar"));
+		cache.invalidate("foo");
+		assertNull(cache.get("foo", foo, 1, pool));
+
+		/* a read pending during the invalidation is not cached */
+		long version = cache.version("foo");
+		cache.invalidate("foo");
+		cache.put("foo", version, foo, response(foo, "old"));
+		assertNull(cache.get("foo", foo, 1, pool));
+
+		cache.put("foo", cache.version("foo"), foo, response(foo, "new"));
+		assertNotNull(cache.get("foo", foo, 1, pool));
+
+		/* disabling removes the entry */
+		cache.setTtl("foo", 0);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testEvict() {
+		ReadCache cache = new ReadCache(2);
+		ParamId a = new ParamId(0, "a");
+		ParamId b = new ParamId(0, "b");
+		ParamId c = new ParamId(0, "c");
+		cache.setTtl("a", 60000);
+		cache.setTtl("b", 60000);
+		cache.setTtl("c", 60000);
+
+		long version = cache.version("c");
+		cache.put("a", cache.version("a"), a, response(a, 1));
+		cache.put("b", cache.version("b"), b, response(b, 2));
+		cache.get("a", a, 1, pool);
+		/* b is the least recently used */
+		cache.put("c", cache.version("c"), c, response(c, 3));
+		assertEquals(2, cache.getSize());
+		assertNotNull(cache.get("a", a, 1, pool));
+		assertNull(cache.get("b", b, 1, pool));
+		assertNotNull(cache.get("c", c, 1, pool));
+
+		/* a read pending during an eviction is not cached */
+		assertEquals(2, cache.getSize());
+		cache.put("b", version, b, response(b, 2));
+		assertNull(cache.get("b", b, 1, pool));
+	}
+}
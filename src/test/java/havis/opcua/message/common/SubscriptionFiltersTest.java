@@ -0,0 +1,185 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.SubscriptionFilter;
+import havis.opcua.message.common.model.SubscriptionFilter.Type;
+
+public class SubscriptionFiltersTest {
+
+	private final LinkedBlockingQueue<String> published = new LinkedBlockingQueue<>();
+
+	private final SubscriptionFilters<String> filters = new SubscriptionFilters<>(
+			new SubscriptionFilters.Publisher<String>() {
+				@Override
+				public void publish(String subscriber, String key, Object value) {
+					published.add(subscriber + ":" + key + "=" + value);
+				}
+			});
+
+	private static SubscriptionFilters.Filter filter(Type type, Object value) {
+		return SubscriptionFilters.create(Collections.singletonList(new SubscriptionFilter(type, new ParamValue(value))));
+	}
+
+	@Test
+	public void testCreate() {
+		assertNull(SubscriptionFilters.create(Collections.<SubscriptionFilter> emptyList()));
+
+		SubscriptionFilters.Filter filter = SubscriptionFilters.create(Arrays.asList(
+				new SubscriptionFilter(Type.ABSOLUTE_DEADBAND, new ParamValue(0.5)),
+				new SubscriptionFilter(Type.MIN_INTERVAL, new ParamValue(100))));
+		assertEquals(0.5, filter.absoluteDeadband, 0);
+		assertTrue(filter.percentDeadband < 0);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), filter.minInterval);
+
+		List<List<SubscriptionFilter>> invalid = Arrays.asList(
+				Collections.singletonList(new SubscriptionFilter(Type.ABSOLUTE_DEADBAND, new ParamValue("1"))),
+				Collections.singletonList(new SubscriptionFilter(Type.PERCENT_DEADBAND, new ParamValue(-1))),
+				Arrays.asList(new SubscriptionFilter(Type.PERCENT_DEADBAND, new ParamValue(1)),
+						new SubscriptionFilter(Type.PERCENT_DEADBAND, new ParamValue(2))));
+		for (List<SubscriptionFilter> settings : invalid) {
+			try {
+				SubscriptionFilters.create(settings);
+				fail("Expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testAbsoluteDeadband() {
+		assertTrue(filters.isEmpty());
+		/* no filter */
+		assertTrue(filters.accept("c1", "rssi", "rssi", -50));
+
+		filters.set("c1", "rssi", filter(Type.ABSOLUTE_DEADBAND, 2));
+		assertTrue(filters.accept("c1", "rssi", "rssi", -50));
+		assertFalse(filters.accept("c1", "rssi", "rssi", -51));
+		assertFalse(filters.accept("c1", "rssi", "rssi", -52));
+		assertTrue(filters.accept("c1", "rssi", "rssi", -52.5f));
+		assertFalse(filters.accept("c1", "rssi", "rssi", (short) -51));
+		/* other types are always sent */
+		assertTrue(filters.accept("c1", "rssi", "rssi", "n/a"));
+		assertTrue(filters.accept("c1", "rssi", "rssi", -52L));
+
+		/* other subscribers and parameters are not filtered */
+		assertTrue(filters.accept("c2", "rssi", "rssi", -52));
+		assertTrue(filters.accept("c1", "power", "power", -52));
+
+		/* a new subscription resets the state */
+		filters.set("c1", "rssi", filter(Type.ABSOLUTE_DEADBAND, 2));
+		assertTrue(filters.accept("c1", "rssi", "rssi", -52));
+
+		filters.remove("c1", "rssi");
+		assertTrue(filters.accept("c1", "rssi", "rssi", -52));
+		assertTrue(filters.accept("c1", "rssi", "rssi", -52));
+	}
+
+	@Test
+	public void testPercentDeadband() {
+		filters.set("c1", "temp", filter(Type.PERCENT_DEADBAND, 10));
+		assertTrue(filters.accept("c1", "temp", "temp", 40.0));
+		assertFalse(filters.accept("c1", "temp", "temp", 43.9));
+		assertFalse(filters.accept("c1", "temp", "temp", 36.0));
+		assertTrue(filters.accept("c1", "temp", "temp", 44.5));
+		assertFalse(filters.accept("c1", "temp", "temp", 48.5));
+		assertTrue(filters.accept("c1", "temp", "temp", 49.5));
+	}
+
+	@Test
+	public void testMinInterval() throws Exception {
+		filters.set("c1", "temp", filter(Type.MIN_INTERVAL, 100));
+		assertTrue(filters.accept("c1", "temp", "temp", 1));
+		assertFalse(filters.accept("c1", "temp", "temp", 2));
+		assertFalse(filters.accept("c1", "temp", "ns=1;s=temp", 3));
+
+		/* the latest value is sent when the interval has elapsed */
+		assertEquals("c1:ns=1;s=temp=3", published.poll(1, TimeUnit.SECONDS));
+		assertNull(published.poll(200, TimeUnit.MILLISECONDS));
+
+		assertTrue(filters.accept("c1", "temp", "temp", 4));
+		assertFalse(filters.accept("c1", "temp", "temp", 5));
+		/* unsubscribed before the interval has elapsed */
+		filters.removeAll("c1");
+		assertNull(published.poll(200, TimeUnit.MILLISECONDS));
+		assertTrue(filters.isEmpty());
+	}
+
+	@Test
+	public void testDeadbandAndMinInterval() throws Exception {
+		filters.set("c1", "temp", SubscriptionFilters.create(Arrays.asList(
+				new SubscriptionFilter(Type.ABSOLUTE_DEADBAND, new ParamValue(1)),
+				new SubscriptionFilter(Type.MIN_INTERVAL, new ParamValue(100)))));
+		assertTrue(filters.accept("c1", "temp", "temp", 10));
+		assertFalse(filters.accept("c1", "temp", "temp", 20));
+		/* back within the deadband of the last sent value, nothing to send */
+		assertFalse(filters.accept("c1", "temp", "temp", 10.5));
+		assertNull(published.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testAggregate() throws Exception {
+		filters.set("c1", "rssi", filter(Type.AGGREGATE, 100));
+		assertFalse(filters.accept("c1", "rssi", "rssi", -50));
+		assertFalse(filters.accept("c1", "rssi", "rssi", -58.5));
+		assertFalse(filters.accept("c1", "rssi", "rssi", (short) -53));
+		/* other values are sent unchanged */
+		assertTrue(filters.accept("c1", "rssi", "rssi", "n/a"));
+
+		assertEquals("c1:rssi={@id=Aggregate, min=-58.5, max=-50.0, avg=-53.833333333333336, count=3}",
+				published.poll(1, TimeUnit.SECONDS));
+		/* nothing is published for windows without values */
+		assertNull(published.poll(300, TimeUnit.MILLISECONDS));
+
+		assertFalse(filters.accept("c1", "rssi", "rssi", 1));
+		assertEquals("c1:rssi={@id=Aggregate, min=1.0, max=1.0, avg=1.0, count=1}",
+				published.poll(1, TimeUnit.SECONDS));
+
+		assertFalse(filters.accept("c1", "rssi", "rssi", 2));
+		filters.remove("c1", "rssi");
+		assertNull(published.poll(300, TimeUnit.MILLISECONDS));
+		assertTrue(filters.accept("c1", "rssi", "rssi", 2));
+
+		try {
+			SubscriptionFilters.create(Arrays.asList(new SubscriptionFilter(Type.AGGREGATE, new ParamValue(100)),
+					new SubscriptionFilter(Type.MIN_INTERVAL, new ParamValue(100))));
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			filter(Type.AGGREGATE, 0);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testWildcard() {
+		filters.set("c1", "rfr310.*", filter(Type.ABSOLUTE_DEADBAND, 5));
+		filters.set("c1", "rfr310.Antenna*", filter(Type.ABSOLUTE_DEADBAND, 1));
+		assertTrue(filters.accept("c1", "rfr310.Rssi", "rfr310.Rssi", 0));
+		assertFalse(filters.accept("c1", "rfr310.Rssi", "rfr310.Rssi", 4));
+		assertTrue(filters.accept("c1", "rfr310.AntennaPower", "rfr310.AntennaPower", 0));
+		assertTrue(filters.accept("c1", "rfr310.AntennaPower", "rfr310.AntennaPower", 4));
+		assertTrue(filters.accept("c1", "foo", "foo", 0));
+		assertTrue(filters.accept("c1", "foo", "foo", 0));
+
+		filters.remove("c1", "rfr310.*");
+		assertTrue(filters.accept("c1", "rfr310.Rssi", "rfr310.Rssi", 4));
+		assertTrue(filters.accept("c1", "rfr310.Rssi", "rfr310.Rssi", 4));
+		assertFalse(filters.accept("c1", "rfr310.AntennaPower", "rfr310.AntennaPower", 4));
+	}
+}
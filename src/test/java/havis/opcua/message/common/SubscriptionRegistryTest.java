@@ -0,0 +1,111 @@
+package havis.opcua.message.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class SubscriptionRegistryTest {
+
+	@Test
+	public void testAddRemove() {
+		SubscriptionRegistry<String> registry = new SubscriptionRegistry<>();
+		assertTrue(registry.isEmpty());
+
+		assertTrue(registry.add("foo", "c1"));
+		assertFalse(registry.add("foo", "c2"));
+		assertFalse(registry.add("foo", "c2"));
+		assertTrue(registry.add("#42", "c2"));
+		assertEquals(new HashSet<>(Arrays.asList("c1", "c2")), registry.get("foo"));
+		assertEquals(Collections.singleton("c2"), registry.get("#42"));
+		assertTrue(registry.get("bar").isEmpty());
+		assertEquals(2, registry.size());
+
+		assertFalse(registry.remove("foo", "c1"));
+		assertTrue(registry.isSubscribed("foo"));
+		assertTrue(registry.remove("foo", "c2"));
+		assertFalse(registry.isSubscribed("foo"));
+
+		/* not subscribed at all */
+		assertTrue(registry.remove("bar", "c1"));
+	}
+
+	@Test
+	public void testRemoveAll() {
+		SubscriptionRegistry<String> registry = new SubscriptionRegistry<>();
+		registry.add("foo", "c1");
+		registry.add("foo", "c2");
+		registry.add("bar", "c1");
+		registry.add("baz", "c2");
+
+		assertEquals(Collections.singletonList("bar"), registry.removeAll("c1"));
+		assertEquals(Collections.singleton("c2"), registry.get("foo"));
+		assertEquals(new HashSet<>(Arrays.asList("baz", "foo")), new HashSet<>(registry.removeAll("c2")));
+		assertTrue(registry.isEmpty());
+	}
+
+	@Test
+	public void testWildcard() {
+		SubscriptionRegistry<String> registry = new SubscriptionRegistry<>();
+		assertTrue(registry.add("rfr310.*", "c1"));
+		assertFalse(registry.add("rfr310.*", "c2"));
+		assertTrue(registry.add("rfr310.Scan*", "c3"));
+		assertTrue(registry.add("rfr310.ScanStop", "c4"));
+		assertTrue(registry.isSubscribed("rfr310.*"));
+		assertFalse(registry.isSubscribed("rfr310.X"));
+		assertEquals(3, registry.size());
+
+		assertEquals(new HashSet<>(Arrays.asList("c1", "c2")), registry.get("rfr310.LastScanData"));
+		assertEquals(new HashSet<>(Arrays.asList("c1", "c2", "c3")), registry.get("rfr310.ScanData"));
+		assertEquals(new HashSet<>(Arrays.asList("c1", "c2", "c3", "c4")), registry.get("rfr310.ScanStop"));
+		assertEquals(new HashSet<>(Arrays.asList("c1", "c2")), registry.get("rfr310."));
+		assertTrue(registry.get("rfr310").isEmpty());
+		assertTrue(registry.get("foo").isEmpty());
+
+		/* all parameters */
+		assertTrue(registry.add("*", "c5"));
+		assertEquals(Collections.singleton("c5"), registry.get("foo"));
+		assertEquals(Collections.singleton("c5"), registry.get(""));
+		assertTrue(registry.remove("*", "c5"));
+		assertTrue(registry.get("foo").isEmpty());
+
+		/* removing a prefix keeps longer prefixes */
+		assertFalse(registry.remove("rfr310.*", "c1"));
+		assertTrue(registry.remove("rfr310.*", "c2"));
+		assertFalse(registry.isSubscribed("rfr310.*"));
+		assertEquals(Collections.singleton("c3"), registry.get("rfr310.ScanData"));
+		assertTrue(registry.get("rfr310.LastScanData").isEmpty());
+
+		assertEquals(Collections.singletonList("rfr310.Scan*"), registry.removeAll("c3"));
+		assertEquals(Collections.singleton("c4"), registry.get("rfr310.ScanStop"));
+		assertTrue(registry.get("rfr310.ScanData").isEmpty());
+		assertEquals(Collections.singletonList("rfr310.ScanStop"), registry.removeAll("c4"));
+		assertTrue(registry.isEmpty());
+
+		/* a prefix which is a prefix of another one */
+		registry.add("a*", "c1");
+		registry.add("ab*", "c2");
+		assertTrue(registry.remove("ab*", "c2"));
+		assertEquals(Collections.singleton("c1"), registry.get("abc"));
+		assertTrue(registry.remove("a*", "c1"));
+		assertTrue(registry.get("abc").isEmpty());
+		assertTrue(registry.isEmpty());
+	}
+
+	@Test
+	public void testToId() {
+		assertEquals("foo", SubscriptionRegistry.toId("foo"));
+		assertEquals("rfr310.LastScanData", SubscriptionRegistry.toId("rfr310.LastScanData"));
+		assertEquals("#42", SubscriptionRegistry.toId("#42"));
+		assertEquals("#42", SubscriptionRegistry.toId("#042"));
+		assertEquals("#x", SubscriptionRegistry.toId("#x"));
+		assertEquals("foo", SubscriptionRegistry.toId("ns=2;s=foo"));
+		assertEquals("#42", SubscriptionRegistry.toId("ns=2;i=42"));
+		assertEquals("#42", SubscriptionRegistry.toId("i=42"));
+	}
+}
@@ -0,0 +1,124 @@
+package havis.opcua.message.common;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import havis.opcua.message.DataProvider;
+import havis.opcua.message.common.model.Message;
+import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.serialize.MessageDeserializer;
+import havis.opcua.message.common.serialize.MessageSerializer;
+
+/**
+ * Blocking client of a message handler for tests
+ */
+class TestClient implements Closeable {
+
+	private static final String PROP_PORT = "havis.opcua.message.MessageHandler.port";
+	private static final int TIMEOUT_MS = 3000;
+
+	private final Socket socket;
+
+	TestClient(int port) throws IOException, InterruptedException {
+		socket = connect(port);
+		socket.setSoTimeout(TIMEOUT_MS);
+	}
+
+	private static Socket connect(int port) throws IOException, InterruptedException {
+		/* the server is started asynchronously */
+		long end = System.currentTimeMillis() + TIMEOUT_MS;
+		while (true) {
+			try {
+				return new Socket("localhost", port);
+			} catch (ConnectException e) {
+				if (System.currentTimeMillis() > end)
+					throw e;
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	/**
+	 * @return a port no server is listening on
+	 */
+	static int freePort() throws IOException {
+		try (ServerSocket ss = new ServerSocket(0)) {
+			return ss.getLocalPort();
+		}
+	}
+
+	/**
+	 * Opens a message handler listening on the port
+	 */
+	static MessageHandlerCommon open(int port, DataProvider provider) {
+		System.setProperty(PROP_PORT, Integer.toString(port));
+		try {
+			MessageHandlerCommon mhc = new MessageHandlerCommon();
+			mhc.open(provider);
+			return mhc;
+		} finally {
+			System.clearProperty(PROP_PORT);
+		}
+	}
+
+	void send(Message msg) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(MessageSerializer.serialize(msg));
+		out.flush();
+	}
+
+	/**
+	 * @return the next message
+	 * @throws SocketTimeoutException
+	 *             if no message arrived within the timeout
+	 */
+	Message receive() throws IOException {
+		return receive(TIMEOUT_MS);
+	}
+
+	/**
+	 * @return the next message, null if none arrived within the timeout
+	 */
+	Message poll(int timeout) throws IOException {
+		try {
+			return receive(timeout);
+		} catch (SocketTimeoutException e) {
+			return null;
+		}
+	}
+
+	private Message receive(int timeout) throws IOException {
+		socket.setSoTimeout(timeout);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] header = new byte[MessageHeader.BYTE_COUNT];
+		in.readFully(header);
+		byte[] msg = new byte[ByteBuffer.wrap(header).getInt(2)];
+		System.arraycopy(header, 0, msg, 0, header.length);
+		in.readFully(msg, header.length, msg.length - header.length);
+		return MessageDeserializer.deserialize(msg);
+	}
+
+	/**
+	 * @return true if the server closed the connection
+	 */
+	boolean isClosed() throws IOException {
+		socket.setSoTimeout(TIMEOUT_MS);
+		try {
+			return socket.getInputStream().read() < 0;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -4,10 +4,15 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import havis.opcua.message.common.client.MessageClientTest;
 import havis.opcua.message.common.model.MessageDeserializeTest;
+import havis.opcua.message.common.model.MessageIdSeedTest;
 import havis.opcua.message.common.model.MessageSerializeTest;
 import havis.opcua.message.common.model.ParamIdTest;
 import havis.opcua.message.common.model.ParamValueTest;
+import havis.opcua.message.common.server.BufferPoolTest;
+import havis.opcua.message.common.server.ConnectionTest;
+import havis.opcua.message.common.server.FrameDecoderTest;
 
 /*
  * Call with VM args: -Djmockit-coverage-excludes=havis\.device\.rf\.daemon\.test\..* 
@@ -16,10 +21,29 @@ import havis.opcua.message.common.model.ParamValueTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+	AsyncDataProviderAdapterTest.class,
+	CallCacheTest.class,
+	CallExecutorTest.class,
+	CallLocksTest.class,
+	DeadlinesTest.class,
+	KeyedExecutorTest.class,
+	LastSentValuesTest.class,
+	MessageHandlerCommonTest.class,
+	MessageClientTest.class,
 	MessageDeserializeTest.class,
+	MessageIdSeedTest.class,
 	MessageSerializeTest.class,
+	NotificationCoalescerTest.class,
 	ParamIdTest.class,
-	ParamValueTest.class
+	ParamValueTest.class,
+	PollingSchedulerTest.class,
+	ProviderRouterTest.class,
+	ReadCacheTest.class,
+	SubscriptionFiltersTest.class,
+	SubscriptionRegistryTest.class,
+	BufferPoolTest.class,
+	ConnectionTest.class,
+	FrameDecoderTest.class
 })
 public class TestSuite {
 
@@ -0,0 +1,33 @@
+package havis.opcua.message.common.client;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import havis.opcua.message.common.model.Status;
+import havis.opcua.message.common.model.WriteResponse;
+import havis.opcua.message.exception.InvalidParameterException;
+import mockit.Deencapsulation;
+
+public class MessageClientTest {
+
+	@Test
+	public void getSuccessfulResponse() throws Exception {
+		MessageClient client = new MessageClient(null);
+
+		WriteResponse wr = new WriteResponse(1, Status.SUCCESS);
+		assertSame(wr, Deencapsulation.invoke(client, "getSuccessfulResponse", wr));
+		/* a superseded write has been replaced by a later write */
+		wr = new WriteResponse(2, Status.SUPERSEDED);
+		assertSame(wr, Deencapsulation.invoke(client, "getSuccessfulResponse", wr));
+
+		try {
+			Deencapsulation.invoke(client, "getSuccessfulResponse", new WriteResponse(3, Status.SERVER_BUSY));
+			fail("Exception expected");
+		} catch (Exception e) {
+			assertTrue(e instanceof InvalidParameterException);
+		}
+	}
+}
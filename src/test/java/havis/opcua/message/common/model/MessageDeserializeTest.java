@@ -3,6 +3,7 @@ package havis.opcua.message.common.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import havis.opcua.message.common.serialize.MessageDeserializer;
 
 import java.nio.ByteBuffer;
@@ -198,6 +199,36 @@ public class MessageDeserializeTest {
 		assertEquals(s.getParamId().getValue(), "foo");
 	}
 
+	@Test
+	public void testDeserializeSubscribeFilters() {
+		byte[] data = new byte[] { 0x00, 0x04, /* message type: subscribe */
+		0x00, 0x00, 0x00, 0x1F, /* message len: 31 bytes */
+		0x00, 0x00, 0x00, 0x01, /* message id: 1 */
+		0x00, 0x00,
+		0x01, /* param id type: alphanum */
+		0x00, 0x03, /* param id len: 3 */
+		0x66, 0x6F, 0x6F, /* param id str: "foo" */
+		0x00, 0x01, /* filter count: 1 */
+		0x02, /* filter type: percent deadband */
+		0x00, 0x07, /* param type: double */
+		0x40, 0x14, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 /* param value: 5.0 */
+		};
+
+		Subscribe s = MessageDeserializer.deserialize(data);
+		assertEquals(s.getParamId().getValue(), "foo");
+		assertEquals(1, s.getFilters().size());
+		assertEquals(SubscriptionFilter.Type.PERCENT_DEADBAND, s.getFilters().get(0).getType());
+		assertEquals(5.0, s.getFilters().get(0).getValue().doubleValue(), 0);
+
+		/* invalid filter type */
+		data[20] = 0x7F;
+		try {
+			MessageDeserializer.deserialize(data);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
 	@Test
 	public void testDeserializeSubscribeResponse() {
 		byte[] data = new byte[] { 0x00, 0x05, /* message type: subsc_resp */
@@ -0,0 +1,59 @@
+package havis.opcua.message.common.model;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the lock-free {@link MessageIdSeed} with the former synchronized
+ * generator hashing random UUIDs. Not part of the test suite, run with
+ * {@link #main(String[])}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MessageIdSeedBenchmark {
+
+	private final MessageIdSeed seed = new MessageIdSeed();
+
+	private static synchronized int nextUuidHash() {
+		return UUID.randomUUID().hashCode();
+	}
+
+	@Benchmark
+	public int uuidHash() {
+		return nextUuidHash();
+	}
+
+	@Benchmark
+	public int next() {
+		return MessageIdSeed.next();
+	}
+
+	@Benchmark
+	public int acquireRelease() {
+		int id = seed.acquire();
+		seed.release(id);
+		return id;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(MessageIdSeedBenchmark.class.getSimpleName()).build()).run();
+	}
+}
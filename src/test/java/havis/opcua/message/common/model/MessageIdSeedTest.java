@@ -0,0 +1,56 @@
+package havis.opcua.message.common.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class MessageIdSeedTest {
+
+	@Test
+	public void testNextId() {
+		MessageIdSeed seed = new MessageIdSeed(0);
+		assertEquals(1, seed.nextId());
+		assertEquals(2, seed.nextId());
+
+		assertNotEquals(MessageIdSeed.next(), MessageIdSeed.next());
+	}
+
+	@Test
+	public void testAcquire() throws Exception {
+		final MessageIdSeed seed = new MessageIdSeed();
+		final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++)
+						ids.add(seed.acquire());
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(4000, ids.size());
+		assertEquals(4000, seed.getInFlightCount());
+
+		for (int id : ids)
+			seed.release(id);
+		assertEquals(0, seed.getInFlightCount());
+	}
+
+	@Test
+	public void testWrapAround() {
+		MessageIdSeed seed = new MessageIdSeed(Integer.MAX_VALUE - 1);
+		assertEquals(Integer.MAX_VALUE, seed.acquire());
+		assertEquals(Integer.MIN_VALUE, seed.acquire());
+		assertEquals(2, seed.getInFlightCount());
+	}
+}
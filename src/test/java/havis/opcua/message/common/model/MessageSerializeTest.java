@@ -2,9 +2,13 @@ package havis.opcua.message.common.model;
 
 import static mockit.Deencapsulation.setField;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import havis.opcua.message.common.serialize.MessageSerializer;
+import havis.opcua.message.common.server.BufferPool;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.LinkedHashMap;
@@ -58,6 +62,95 @@ public class MessageSerializeTest {
 		assertArrayEquals(exp, act);
 	}
 	
+	@Test
+	public void testSerializePooled() {
+		BufferPool pool = new BufferPool(true);
+		ReadResponse rr = new ReadResponse(new Read(new ParamId(0, "foo"), 0xffffffff), new ParamValue("bar"),
+				Status.SUCCESS);
+		byte[] exp = MessageSerializer.serialize(rr);
+
+		ByteBuffer bb = MessageSerializer.serialize(rr, pool);
+		assertTrue(bb.isDirect());
+		assertEquals(0, bb.position());
+		assertEquals(exp.length, bb.remaining());
+
+		byte[] act = new byte[bb.remaining()];
+		bb.get(act);
+		assertArrayEquals(exp, act);
+
+		pool.release(bb);
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testSerializePooledLarge() {
+		BufferPool pool = new BufferPool(false);
+
+		/* exceeds any size estimate of previous notifications */
+		Struct[] structs = new Struct[500];
+		for (int i = 0; i < structs.length; i++) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("@id", "ns=1;i=" + i);
+			map.put("epc", new Byte[] { 0x30, 0x00, (byte) i });
+			map.put("rssi", i);
+			structs[i] = new Struct(map);
+		}
+		Notification n = new Notification();
+		n.getParamMap().put(new ParamId(0, "report"), new ParamValue(structs));
+
+		byte[] exp = MessageSerializer.serialize(n);
+		for (int i = 0; i < 2; i++) {
+			ByteBuffer bb = MessageSerializer.serialize(n, pool);
+			assertEquals(exp.length, bb.remaining());
+			assertEquals(exp.length, bb.getInt(2));
+			assertEquals(exp.length, n.getMessageHeader().getMessageLength());
+
+			byte[] act = new byte[bb.remaining()];
+			bb.get(act);
+			assertArrayEquals(exp, act);
+			pool.release(bb);
+		}
+
+		/* sizes of mutable values are not cached */
+		String[] strings = new String[] { "a", "b" };
+		ParamValue pv = new ParamValue(strings);
+		int byteCount = pv.getByteCount();
+		strings[0] = "abc";
+		assertEquals(byteCount + 2, pv.getByteCount());
+	}
+
+	@Test
+	public void testSerializePooledAfterLarge() {
+		BufferPool pool = new BufferPool(false);
+
+		/* larger than the largest size class */
+		Struct[] structs = new Struct[5000];
+		for (int i = 0; i < structs.length; i++) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("@id", "ns=1;i=" + i);
+			map.put("rssi", i);
+			structs[i] = new Struct(map);
+		}
+		Notification large = new Notification();
+		large.getParamMap().put(new ParamId(0, "report"), new ParamValue(structs));
+		ByteBuffer bb = MessageSerializer.serialize(large, pool);
+		assertTrue(bb.remaining() > pool.getMaxBufferSize());
+		assertEquals(MessageSerializer.serialize(large).length, bb.remaining());
+		pool.release(bb);
+
+		/* the following small notifications are served from the pool */
+		Notification small = new Notification();
+		small.getParamMap().put(new ParamId(0, "rssi"), new ParamValue(-50));
+		for (int i = 0; i < 20; i++) {
+			bb = MessageSerializer.serialize(small, pool);
+			assertTrue(bb.capacity() <= pool.getMaxBufferSize());
+			assertEquals(MessageSerializer.serialize(small).length, bb.remaining());
+			pool.release(bb);
+		}
+		/* only the buffer of the large notification was not pooled */
+		assertEquals(1, pool.getDiscards());
+	}
+
 	@Test
 	public void testSerializeWrite() {
 		ParamId paramId = new ParamId(0, "foo");
@@ -116,6 +209,31 @@ public class MessageSerializeTest {
 		assertArrayEquals(exp, act);
 	}
 	
+	@Test
+	public void testSerializeSubscribeFilters() {
+		Subscribe s = new Subscribe(new ParamId(0, 0xffffffff), Arrays.asList(
+				new SubscriptionFilter(SubscriptionFilter.Type.ABSOLUTE_DEADBAND, new ParamValue(0.5)),
+				new SubscriptionFilter(SubscriptionFilter.Type.MIN_INTERVAL, new ParamValue(1000))), 0xffffffff);
+		byte[] act = MessageSerializer.serialize(s);
+		
+		byte[] exp = new byte[] { 
+				0x00, 0x04, /* message type: subscribe */ 			 
+				0x00, 0x00, 0x00, 0x25, /* message len: 37 bytes */
+				(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, /* message id: 0xffffffff */
+				0x00, 0x00,
+				0x00, /* param id type: num */  
+				(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, /* param id type: 0xffffffff */
+				0x00, 0x02, /* filter count: 2 */
+				0x01, /* filter type: absolute deadband */
+				0x00, 0x07, /* param type: double */
+				0x3F, (byte)0xE0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, /* param value: 0.5 */
+				0x03, /* filter type: min interval */
+				0x00, 0x04, /* param type: int */
+				0x00, 0x00, 0x03, (byte)0xE8 /* param value: 1000 */
+			};
+		assertArrayEquals(exp, act);
+	}
+	
 	@Test
 	public void testSerializeSubscribeResponse() {
 		Subscribe s = new Subscribe(new ParamId(0, 0xffffffff), 0xffffaaff);		
@@ -2,6 +2,8 @@ package havis.opcua.message.common.model;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
@@ -71,6 +73,73 @@ public class ParamValueTest {
 		assertArrayEquals(new byte[] { 0x00, 0x07, 0x7F, (byte) 0xEF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }, bytes);
 	}
 
+	@Test
+	public void testNumeric() {
+		assertTrue(new ParamValue((byte) 1).isNumeric());
+		assertTrue(new ParamValue((short) 2).isNumeric());
+		assertTrue(new ParamValue(3).isNumeric());
+		assertTrue(new ParamValue(4L).isNumeric());
+		assertTrue(new ParamValue(5.5f).isNumeric());
+		assertTrue(new ParamValue(6.25).isNumeric());
+		assertFalse(new ParamValue(true).isNumeric());
+		assertFalse(new ParamValue("7").isNumeric());
+		assertFalse(new ParamValue(new Integer[] { 8 }).isNumeric());
+
+		assertEquals(1, new ParamValue((byte) 1).doubleValue(), 0);
+		assertEquals(4, new ParamValue(4L).doubleValue(), 0);
+		assertEquals(5.5, new ParamValue(5.5f).doubleValue(), 0);
+		assertEquals(6.25, new ParamValue(6.25).doubleValue(), 0);
+	}
+
+	@Test
+	public void testEquals() {
+		assertEquals(new ParamValue(3), new ParamValue(3));
+		assertEquals(new ParamValue(3).hashCode(), new ParamValue(3).hashCode());
+		assertEquals(new ParamValue(Double.NaN), new ParamValue(Double.NaN));
+		assertEquals(new ParamValue("foo"), new ParamValue("foo", true));
+		assertFalse(new ParamValue(3).equals(new ParamValue(4)));
+		/* the same number of another type differs on the wire */
+		assertFalse(new ParamValue(3).equals(new ParamValue(3L)));
+		assertFalse(new ParamValue(3).equals(null));
+
+		/* arrays are compared by their elements */
+		assertEquals(new ParamValue(new Integer[] { 1, 2 }), new ParamValue(new Integer[] { 1, 2 }));
+		assertEquals(new ParamValue(new Integer[] { 1, 2 }).hashCode(),
+				new ParamValue(new Integer[] { 1, 2 }).hashCode());
+		assertEquals(new ParamValue(new String[] { "a", "b" }), new ParamValue(new String[] { "a", "b" }));
+		assertFalse(new ParamValue(new Integer[] { 1, 2 }).equals(new ParamValue(new Integer[] { 2, 1 })));
+		assertFalse(new ParamValue(new Integer[] { 1 }).equals(new ParamValue(new Long[] { 1L })));
+
+		/* structs are compared by their ID and fields */
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("@id", "ns=1;s=Aggregate");
+		map.put("min", 1.5);
+		map.put("values", new Integer[] { 1, 2 });
+		Map<String, Object> inner = new LinkedHashMap<>();
+		inner.put("@id", "ns=1;s=Inner");
+		inner.put("name", "x");
+		map.put("inner", inner);
+		ParamValue pv = new ParamValue(map);
+		assertEquals(pv, new ParamValue(new LinkedHashMap<>(map)));
+		assertEquals(pv.hashCode(), new ParamValue(new LinkedHashMap<>(map)).hashCode());
+		assertEquals(new ParamValue(new Map[] { map }), new ParamValue(new Map[] { new LinkedHashMap<>(map) }));
+
+		/* a deserialized value equals the original one */
+		ByteBuffer bb = ByteBuffer.allocate(pv.getByteCount());
+		pv.serialize(bb);
+		bb.flip();
+		assertEquals(pv, new ParamValue(bb));
+
+		map.put("min", 2.5);
+		assertFalse(pv.equals(new ParamValue(map)));
+		map.put("min", 1.5);
+		map.put("@id", "ns=1;s=Other");
+		assertFalse(pv.equals(new ParamValue(map)));
+		map.put("@id", "ns=1;s=Aggregate");
+		inner.put("name", "y");
+		assertFalse(pv.equals(new ParamValue(map)));
+	}
+
 	@Test
 	public void testArraySerialize() {
 		ParamValue pv;
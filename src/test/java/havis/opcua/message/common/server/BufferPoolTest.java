@@ -0,0 +1,91 @@
+package havis.opcua.message.common.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testAcquire() {
+		BufferPool pool = new BufferPool(false, 64, 1024, 4);
+
+		ByteBuffer bb = pool.acquire(10);
+		assertEquals(64, bb.capacity());
+		assertEquals(0, bb.position());
+		assertEquals(10, bb.limit());
+		assertFalse(bb.isDirect());
+
+		bb = pool.acquire(65);
+		assertEquals(128, bb.capacity());
+		assertEquals(65, bb.limit());
+
+		bb = pool.acquire(1024);
+		assertEquals(1024, bb.capacity());
+
+		/* larger than the largest size class */
+		bb = pool.acquire(1025);
+		assertEquals(1025, bb.capacity());
+
+		assertEquals(0, pool.getHits());
+		assertEquals(4, pool.getMisses());
+
+		assertTrue(new BufferPool(true).acquire(100).isDirect());
+	}
+
+	@Test
+	public void testRelease() {
+		BufferPool pool = new BufferPool(false, 64, 1024, 1);
+
+		ByteBuffer bb = pool.acquire(100);
+		bb.put((byte) 1);
+		pool.release(bb);
+		assertEquals(1, pool.getIdleCount());
+
+		ByteBuffer bb2 = pool.acquire(120);
+		assertSame(bb, bb2);
+		assertEquals(0, bb2.position());
+		assertEquals(120, bb2.limit());
+		assertEquals(1, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(0, pool.getIdleCount());
+
+		/* class is full */
+		pool.release(bb2);
+		pool.release(ByteBuffer.allocate(128));
+		assertEquals(1, pool.getDiscards());
+
+		/* foreign buffers */
+		pool.release(ByteBuffer.allocate(100));
+		pool.release(ByteBuffer.allocate(2048));
+		pool.release(ByteBuffer.allocateDirect(256));
+		pool.release(null);
+		assertEquals(4, pool.getDiscards());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testSizeEstimate() {
+		BufferPool pool = new BufferPool(false, 64, 1024, 4);
+		assertEquals(1024, pool.getMaxBufferSize());
+		assertEquals(0, pool.getSizeEstimate(0));
+
+		pool.updateSizeEstimate(0, 100);
+		assertEquals(100, pool.getSizeEstimate(0));
+		/* smaller sizes decay slowly */
+		pool.updateSizeEstimate(0, 20);
+		assertEquals(95, pool.getSizeEstimate(0));
+		assertEquals(0, pool.getSizeEstimate(1));
+
+		/* capped at the largest size class */
+		pool.updateSizeEstimate(0, 1000000);
+		assertEquals(1024, pool.getSizeEstimate(0));
+		pool.updateSizeEstimate(0, 1024 - 160);
+		assertEquals(1014, pool.getSizeEstimate(0));
+	}
+}
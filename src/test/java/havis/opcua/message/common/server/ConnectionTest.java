@@ -0,0 +1,229 @@
+package havis.opcua.message.common.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mockit.Deencapsulation;
+
+public class ConnectionTest {
+
+	private ServerSocketChannel ssc;
+	private SocketChannel client;
+	private MessageServer server;
+	private Connection connection;
+
+	@Before
+	public void setup() throws Exception {
+		ssc = ServerSocketChannel.open();
+		ssc.socket().bind(new InetSocketAddress("localhost", 0));
+		client = SocketChannel.open(ssc.socket().getLocalSocketAddress());
+		SocketChannel channel = ssc.accept();
+		channel.configureBlocking(false);
+
+		server = new MessageServer();
+		server.setMaxQueuedFrames(3);
+		server.setMaxQueuedBytes(1024);
+		connection = new Connection(server, channel);
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		connection.close();
+		client.close();
+		ssc.close();
+	}
+
+	private static ByteBuffer frame(int value) {
+		ByteBuffer bb = ByteBuffer.allocate(4);
+		bb.putInt(value).flip();
+		return bb;
+	}
+
+	private int[] flushAndReceive(int count) throws Exception {
+		assertTrue(connection.flush());
+		assertEquals(count, connection.getLastFlushedFrames());
+		assertEquals(count * 4, connection.getLastFlushedBytes());
+
+		ByteBuffer bb = ByteBuffer.allocate(count * 4);
+		while (bb.hasRemaining())
+			client.read(bb);
+		bb.flip();
+
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++)
+			values[i] = bb.getInt();
+		return values;
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		for (int i = 0; i < 3; i++)
+			assertTrue(connection.submit(frame(i), false));
+		assertTrue(connection.hasPendingWrites());
+		assertEquals(3, connection.getQueuedFrames());
+		assertEquals(12, connection.getQueuedBytes());
+
+		int[] values = flushAndReceive(3);
+		assertEquals(0, values[0]);
+		assertEquals(2, values[2]);
+		assertFalse(connection.hasPendingWrites());
+		assertEquals(0, connection.getQueuedBytes());
+		assertEquals(12, connection.getBytesSent());
+		assertEquals(3, connection.getFramesSent());
+	}
+
+	@Test
+	public void testReleaseSharedBuffer() throws Exception {
+		BufferPool pool = new BufferPool(false);
+		server.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+
+		ByteBuffer bb = pool.acquire(4);
+		bb.putInt(1).flip();
+		SharedBuffer shared = new SharedBuffer(pool, bb, 2);
+		assertTrue(connection.submit(bb.duplicate(), shared, true));
+		assertTrue(connection.submit(bb.duplicate(), shared, true));
+		flushAndReceive(2);
+		assertEquals(1, pool.getIdleCount());
+
+		/* dropped frames are released as well */
+		for (int i = 0; i < 3; i++)
+			assertTrue(connection.submit(frame(i), true));
+		bb = pool.acquire(4);
+		assertTrue(connection.submit(bb, new SharedBuffer(pool, bb, 1), true));
+		assertEquals(1, pool.getIdleCount());
+
+		/* as are the frames pending on close */
+		connection.close();
+		assertEquals(0, connection.getQueuedFrames());
+		bb = pool.acquire(4);
+		assertTrue(connection.submit(bb, new SharedBuffer(pool, bb, 1), false));
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+		for (int i = 0; i < 5; i++)
+			assertTrue(connection.submit(frame(i), true));
+
+		assertEquals(3, connection.getQueuedFrames());
+		assertEquals(2, connection.getDroppedFrames());
+		assertEquals(2, server.getDroppedFrames());
+		assertEquals(8, server.getDroppedBytes());
+
+		int[] values = flushAndReceive(3);
+		assertEquals(0, values[0]);
+		assertEquals(2, values[2]);
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		assertTrue(connection.submit(frame(0), false));
+		for (int i = 1; i < 5; i++)
+			assertTrue(connection.submit(frame(i), true));
+
+		/* the response is never dropped */
+		assertEquals(3, connection.getQueuedFrames());
+		assertEquals(2, connection.getDroppedFrames());
+
+		int[] values = flushAndReceive(3);
+		assertEquals(0, values[0]);
+		assertEquals(3, values[1]);
+		assertEquals(4, values[2]);
+	}
+
+	@Test
+	public void testByteLimit() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+		assertTrue(connection.submit(ByteBuffer.allocate(2048), true));
+		assertEquals(1, connection.getQueuedFrames());
+
+		assertTrue(connection.submit(frame(1), true));
+		assertEquals(1, connection.getQueuedFrames());
+		assertEquals(1, connection.getDroppedFrames());
+	}
+
+	@Test
+	public void testResponsesBypassLimits() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.DISCONNECT);
+		for (int i = 0; i < 5; i++)
+			assertTrue(connection.submit(frame(i), false));
+		assertEquals(5, connection.getQueuedFrames());
+		assertEquals(0, connection.getDroppedFrames());
+		assertFalse(connection.isOverflowed());
+	}
+
+	@Test
+	public void testDisconnect() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.DISCONNECT);
+		for (int i = 0; i < 3; i++)
+			assertTrue(connection.submit(frame(i), true));
+
+		assertFalse(connection.submit(frame(3), true));
+		assertTrue(connection.isOverflowed());
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		server.setOverflowPolicy(OverflowPolicy.BLOCK);
+		server.setOverflowTimeout(50);
+		for (int i = 0; i < 3; i++)
+			assertTrue(connection.submit(frame(i), true));
+
+		/* times out */
+		long start = System.currentTimeMillis();
+		assertTrue(connection.submit(frame(3), true));
+		assertTrue(System.currentTimeMillis() - start >= 40);
+		assertEquals(1, connection.getDroppedFrames());
+
+		/* unblocked by a flush */
+		server.setOverflowTimeout(5000);
+		Thread flusher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					connection.flush();
+				} catch (Exception e) {
+				}
+			}
+		};
+		flusher.start();
+		assertTrue(connection.submit(frame(4), true));
+		flusher.join();
+		assertEquals(1, connection.getQueuedFrames());
+		assertEquals(1, connection.getDroppedFrames());
+	}
+
+	@Test
+	public void testReadAfterClose() throws Exception {
+		/* a partial frame is held by the decoder */
+		client.write(ByteBuffer.wrap(new byte[] { 0, 1, 0 }));
+		Thread.sleep(50);
+		assertTrue(connection.read());
+
+		connection.close();
+		assertFalse(connection.read());
+	}
+
+	@Test
+	public void testSubmitAfterStop() throws Exception {
+		/* stop() clears the selector while a submit may still be running */
+		Deencapsulation.setField(server, "serverRunning", true);
+		server.submit(Collections.singleton(connection), frame(1), false);
+		server.submit(connection, frame(2));
+		assertEquals(2, connection.getQueuedFrames());
+	}
+}
@@ -0,0 +1,138 @@
+package havis.opcua.message.common.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import havis.opcua.message.common.model.MessageHeader;
+import havis.opcua.message.common.model.MessageType;
+import havis.opcua.message.common.model.ParamId;
+import havis.opcua.message.common.model.ParamValue;
+import havis.opcua.message.common.model.Read;
+import havis.opcua.message.common.model.Write;
+import havis.opcua.message.common.serialize.MessageSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrameDecoderTest {
+
+	private static class Frames implements FrameDecoder.FrameHandler {
+		List<MessageHeader> headers = new ArrayList<>();
+		List<byte[]> bodies = new ArrayList<>();
+
+		@Override
+		public void frame(MessageHeader msgHeader, ByteBuffer msgBody) {
+			headers.add(msgHeader);
+			byte[] body = new byte[msgBody.remaining()];
+			msgBody.get(body);
+			bodies.add(body);
+		}
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		int len = 0;
+		for (byte[] a : arrays)
+			len += a.length;
+		ByteBuffer bb = ByteBuffer.allocate(len);
+		for (byte[] a : arrays)
+			bb.put(a);
+		return bb.array();
+	}
+
+	@Test
+	public void testDecodeMultipleFrames() throws Exception {
+		byte[] read = MessageSerializer.serialize(new Read(new ParamId(0, "foo"), 1));
+		byte[] write = MessageSerializer.serialize(new Write(new ParamId(0, 42), new ParamValue(23), 2));
+
+		Frames frames = new Frames();
+		FrameDecoder decoder = new FrameDecoder(MessageServer.MAX_MESSAGE_LENGTH, new BufferPool(false));
+		decoder.decode(ByteBuffer.wrap(concat(read, write, read)), frames);
+
+		assertEquals(3, frames.headers.size());
+		assertEquals(MessageType.READ, frames.headers.get(0).getMessageType());
+		assertEquals(MessageType.WRITE, frames.headers.get(1).getMessageType());
+		assertEquals(2, frames.headers.get(1).getMessageId());
+		assertEquals(read.length - MessageHeader.BYTE_COUNT, frames.bodies.get(0).length);
+		assertEquals(write.length - MessageHeader.BYTE_COUNT, frames.bodies.get(1).length);
+		assertFalse(decoder.hasPartialFrame());
+	}
+
+	@Test
+	public void testDecodePartialFrames() throws Exception {
+		byte[] read = MessageSerializer.serialize(new Read(new ParamId(0, "foo"), 1));
+		byte[] write = MessageSerializer.serialize(new Write(new ParamId(0, "bar"), new ParamValue("baz"), 2));
+		byte[] data = concat(read, write);
+
+		/* feed the stream in every possible chunk size */
+		for (int chunk = 1; chunk <= data.length; chunk++) {
+			Frames frames = new Frames();
+			FrameDecoder decoder = new FrameDecoder(MessageServer.MAX_MESSAGE_LENGTH, new BufferPool(false));
+			for (int pos = 0; pos < data.length; pos += chunk)
+				decoder.decode(ByteBuffer.wrap(data, pos, Math.min(chunk, data.length - pos)), frames);
+
+			assertEquals(2, frames.headers.size());
+			assertEquals(1, frames.headers.get(0).getMessageId());
+			assertEquals(2, frames.headers.get(1).getMessageId());
+			assertEquals(ByteBuffer.wrap(read, MessageHeader.BYTE_COUNT, read.length - MessageHeader.BYTE_COUNT),
+					ByteBuffer.wrap(frames.bodies.get(0)));
+			assertEquals(ByteBuffer.wrap(write, MessageHeader.BYTE_COUNT, write.length - MessageHeader.BYTE_COUNT),
+					ByteBuffer.wrap(frames.bodies.get(1)));
+			assertFalse(decoder.hasPartialFrame());
+		}
+	}
+
+	@Test
+	public void testDecodeIncompleteFrame() throws Exception {
+		byte[] read = MessageSerializer.serialize(new Read(new ParamId(0, "foo"), 1));
+
+		Frames frames = new Frames();
+		FrameDecoder decoder = new FrameDecoder(MessageServer.MAX_MESSAGE_LENGTH, new BufferPool(false));
+		decoder.decode(ByteBuffer.wrap(read, 0, read.length - 1), frames);
+
+		assertEquals(0, frames.headers.size());
+		assertTrue(decoder.hasPartialFrame());
+	}
+
+	@Test
+	public void testDecodeMalformedFrame() {
+		byte[] data = new byte[] {
+			0x00, 0x00, /* message type: read */
+			0x00, 0x00, 0x00, 0x02, /* message len: 2 bytes, shorter than the header */
+			0x00, 0x00, 0x00, 0x01 /* message id: 1 */
+		};
+
+		try {
+			new FrameDecoder(MessageServer.MAX_MESSAGE_LENGTH, new BufferPool(false)).decode(ByteBuffer.wrap(data), new Frames());
+			fail("Expected MalformedMessageException");
+		} catch (MalformedMessageException e) {
+		}
+
+		data = new byte[] {
+			0x00, 0x00, /* message type: read */
+			0x00, 0x00, 0x01, 0x00, /* message len: 256 bytes */
+			0x00, 0x00, 0x00, 0x01 /* message id: 1 */
+		};
+
+		try {
+			new FrameDecoder(255, new BufferPool(false)).decode(ByteBuffer.wrap(data), new Frames());
+			fail("Expected MalformedMessageException");
+		} catch (MalformedMessageException e) {
+		}
+
+		data = new byte[] {
+			0x7F, 0x7F, /* message type: unknown */
+			0x00, 0x00, 0x00, 0x0A, /* message len: 10 bytes */
+			0x00, 0x00, 0x00, 0x01 /* message id: 1 */
+		};
+
+		try {
+			new FrameDecoder(MessageServer.MAX_MESSAGE_LENGTH, new BufferPool(false)).decode(ByteBuffer.wrap(data), new Frames());
+			fail("Expected MalformedMessageException");
+		} catch (MalformedMessageException e) {
+		}
+	}
+}